@@ -0,0 +1,10 @@
+package com.example.demo;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// Runs the @Scheduled relays, such as the one pushing appointment changes to stream subscribers
+@Configuration
+@EnableScheduling
+public class SchedulingConfiguration {
+}
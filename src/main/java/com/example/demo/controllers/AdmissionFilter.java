@@ -0,0 +1,228 @@
+package com.example.demo.controllers;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Sheds load before it reaches the controllers and queues on the connection pool. Each client
+// gets a token bucket, answered with 429 once it is empty, and reads and writes each get a fixed
+// number of requests in flight, answered with 503 once they are all taken. A request that goes
+// async (exports, imports) holds its permit until the async work completes. Change stream
+// subscribers stay connected for up to half an hour, so they are counted in a group of their own
+// (admission.concurrency.streams) and never take the permits of plain reads.
+// Rejections are written without a body or an error dispatch so they stay cheap under load.
+//
+// Clients are told apart by remote address, so behind a load balancer or reverse proxy they would
+// all share one bucket. There, admission.client-key-header names the header the proxy puts the
+// client address in, e.g. X-Forwarded-For. Its last value is used: that is the one the proxy
+// appended, while earlier ones come from the client and can be made up.
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    static final String READS = "reads";
+    static final String WRITES = "writes";
+    static final String STREAMS = "streams";
+
+    private static final String STREAM_PATH = "/api/appointments/stream";
+
+    private final String clientKeyHeader;
+    private final double tokensPerSecond;
+    private final int burst;
+    private final Semaphore reads;
+    private final Semaphore writes;
+    private final Semaphore streams;
+    private final Counter rateLimited;
+    private final Counter readsShed;
+    private final Counter writesShed;
+    private final Counter streamsShed;
+
+    // Buckets of clients that went quiet are dropped, and they start full when they come back
+    private final ConcurrentMap<String, TokenBucket> buckets = Caffeine.newBuilder()
+            .maximumSize(100_000).expireAfterAccess(10, TimeUnit.MINUTES).<String, TokenBucket>build().asMap();
+
+    @Autowired
+    public AdmissionFilter(@Value("${admission.rate.per-second:50}") double tokensPerSecond,
+                           @Value("${admission.rate.burst:100}") int burst,
+                           @Value("${admission.concurrency.reads:40}") int maxReads,
+                           @Value("${admission.concurrency.writes:8}") int maxWrites,
+                           @Value("${admission.concurrency.streams:200}") int maxStreams,
+                           @Value("${admission.client-key-header:}") String clientKeyHeader,
+                           ObjectProvider<MeterRegistry> meterRegistry){
+        this(tokensPerSecond, burst, maxReads, maxWrites, maxStreams, clientKeyHeader, meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+    }
+
+    public AdmissionFilter(double tokensPerSecond, int burst, int maxReads, int maxWrites, MeterRegistry meterRegistry){
+        this(tokensPerSecond, burst, maxReads, maxWrites, 200, null, meterRegistry);
+    }
+
+    public AdmissionFilter(double tokensPerSecond, int burst, int maxReads, int maxWrites, int maxStreams,
+                           String clientKeyHeader, MeterRegistry meterRegistry){
+        this.clientKeyHeader = clientKeyHeader == null || clientKeyHeader.trim().isEmpty() ? null : clientKeyHeader.trim();
+        this.tokensPerSecond = tokensPerSecond;
+        this.burst = burst;
+        this.reads = new Semaphore(maxReads);
+        this.writes = new Semaphore(maxWrites);
+        this.streams = new Semaphore(maxStreams);
+
+        Gauge.builder("admission.rate.limit", () -> tokensPerSecond).baseUnit("requests/s").register(meterRegistry);
+        Gauge.builder("admission.rate.burst", () -> burst).register(meterRegistry);
+        Gauge.builder("admission.rate.clients", buckets, ConcurrentMap::size).register(meterRegistry);
+        Gauge.builder("admission.concurrency.limit", () -> maxReads).tag("group", READS).register(meterRegistry);
+        Gauge.builder("admission.concurrency.limit", () -> maxWrites).tag("group", WRITES).register(meterRegistry);
+        Gauge.builder("admission.concurrency.limit", () -> maxStreams).tag("group", STREAMS).register(meterRegistry);
+        Gauge.builder("admission.concurrency.in_use", reads, s -> maxReads - s.availablePermits()).tag("group", READS).register(meterRegistry);
+        Gauge.builder("admission.concurrency.in_use", writes, s -> maxWrites - s.availablePermits()).tag("group", WRITES).register(meterRegistry);
+        Gauge.builder("admission.concurrency.in_use", streams, s -> maxStreams - s.availablePermits()).tag("group", STREAMS).register(meterRegistry);
+        this.rateLimited = Counter.builder("admission.rejected").tag("reason", "rate_limited").register(meterRegistry);
+        this.readsShed = Counter.builder("admission.rejected").tag("reason", "overloaded").tag("group", READS).register(meterRegistry);
+        this.writesShed = Counter.builder("admission.rejected").tag("reason", "overloaded").tag("group", WRITES).register(meterRegistry);
+        this.streamsShed = Counter.builder("admission.rejected").tag("reason", "overloaded").tag("group", STREAMS).register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request){
+        return !request.getRequestURI().startsWith(request.getContextPath() + "/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        TokenBucket bucket = buckets.computeIfAbsent(clientKey(request), client -> new TokenBucket(tokensPerSecond, burst));
+        long waitNanos = bucket.tryTake();
+        if (waitNanos > 0) {
+            rateLimited.increment();
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1);
+            return;
+        }
+
+        boolean write = !"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod());
+        boolean stream = !write && request.getRequestURI().equals(request.getContextPath() + STREAM_PATH);
+        Semaphore group = write ? writes : stream ? streams : reads;
+        if (!group.tryAcquire()) {
+            (write ? writesShed : stream ? streamsShed : readsShed).increment();
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, 1);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            // The async dispatch that finishes the response skips this filter, so the listener
+            // is the only place left to give the permit back
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleaseOnCompletion(group));
+            } else {
+                group.release();
+            }
+        }
+    }
+
+    private String clientKey(HttpServletRequest request){
+        String forwarded = clientKeyHeader == null ? null : request.getHeader(clientKeyHeader);
+        if (forwarded != null) {
+            String client = forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+            if (!client.isEmpty()) {
+                return client;
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private static void reject(HttpServletResponse response, HttpStatus status, long retryAfterSeconds){
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+
+    // onError and onTimeout are followed by onComplete, so the permit is released only once
+    private static final class ReleaseOnCompletion implements AsyncListener {
+
+        private final Semaphore group;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleaseOnCompletion(Semaphore group){
+            this.group = group;
+        }
+
+        private void release(){
+            if (released.compareAndSet(false, true)) {
+                group.release();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event){
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event){
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event){
+            release();
+        }
+
+        // Listeners are dropped when async is started again from a dispatch, so this one stays on
+        @Override
+        public void onStartAsync(AsyncEvent event){
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    // Refilled lazily from the elapsed time on each take, so idle clients cost nothing
+    static final class TokenBucket {
+
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(double tokensPerSecond, int capacity){
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.refilledAt = System.nanoTime();
+        }
+
+        // 0 when a token was taken, otherwise the nanoseconds until the next one is available
+        synchronized long tryTake(){
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+    }
+
+}
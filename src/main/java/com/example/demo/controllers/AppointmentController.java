@@ -2,50 +2,173 @@ package com.example.demo.controllers;
 
 import com.example.demo.repositories.*;
 import com.example.demo.entities.*;
+import com.example.demo.dto.AppointmentBatchResult;
+import com.example.demo.dto.AppointmentView;
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.BookedSlot;
+import com.example.demo.services.AppointmentChangeFeed;
+import com.example.demo.services.AppointmentChanges;
+import com.example.demo.services.AppointmentExporter;
+import com.example.demo.services.BookingLocks;
+import com.example.demo.services.CollectionVersions;
+import com.example.demo.services.ConflictSweep;
+import com.example.demo.services.RoomUtilization;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 @RestController
 @RequestMapping("/api")
 public class AppointmentController {
 
+    // Change id a copy of the appointments is current as of: the "since" of its first sync
+    static final String CHANGE_VERSION_HEADER = "X-Change-Version";
+
     @Autowired
     AppointmentRepository appointmentRepository;
 
+    @Autowired
+    RoomRepository roomRepository;
+
+    @Autowired
+    DoctorRepository doctorRepository;
+
+    @Autowired
+    PatientRepository patientRepository;
+
+    @Autowired
+    RecurringAppointmentRepository recurringAppointmentRepository;
+
+    @Autowired
+    BookingLocks bookingLocks;
+
+    @Autowired
+    AppointmentExporter appointmentExporter;
+
+    @Autowired
+    CollectionVersions collectionVersions;
+
+    @Autowired
+    RoomUtilization roomUtilization;
+
+    @Autowired
+    AppointmentChanges appointmentChanges;
+
+    @Autowired
+    AppointmentChangeFeed appointmentChangeFeed;
+
+    @Autowired
+    AppointmentChangeRepository appointmentChangeRepository;
+
     public AppointmentController(AppointmentRepository appointmentRepository){
         this.appointmentRepository = appointmentRepository;
     }
 
     @GetMapping("/appointments")
-    public ResponseEntity<List<Appointment>> getAllAppointments(){
-        List<Appointment> appointments = new ArrayList<>();
+    public ResponseEntity<List<AppointmentView>> getAllAppointments(@RequestParam(value = "after", required = false) Long after,
+                                                                    @RequestParam(value = "limit", required = false) Integer limit,
+                                                                    WebRequest request){
+        if (request.checkNotModified(collectionVersions.etag(CollectionVersions.APPOINTMENTS))){
+            return null;
+        }
+
+        HttpHeaders headers = changeVersionHeaders();
+        if (Pagination.isRequested(after, limit)){
+            int pageSize = Pagination.pageSize(limit);
+            List<AppointmentView> page = appointmentRepository.findViewsByIdGreaterThan(after == null ? 0 : after, Pagination.firstRows(pageSize));
+            return Pagination.page(page, pageSize, AppointmentView::getId, headers);
+        }
 
-        appointmentRepository.findAll().forEach(appointments::add);
+        List<AppointmentView> appointments = appointmentRepository.findAllViews();
 
         if (appointments.isEmpty()){
-            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+            return new ResponseEntity<>(headers, HttpStatus.NO_CONTENT);
+        }
+
+        return new ResponseEntity<>(appointments, headers, HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/appointments/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportAppointments(){
+        HttpHeaders headers = changeVersionHeaders();
+        StreamingResponseBody body = appointmentExporter::writeNdjson;
+        headers.setContentType(MediaType.APPLICATION_NDJSON);
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    // Read before the snapshot is taken, so every change up to it is in the snapshot. Changes
+    // after it may be in there as well and are replayed on the next sync, which is harmless.
+    private HttpHeaders changeVersionHeaders(){
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(CHANGE_VERSION_HEADER, String.valueOf(appointmentChangeFeed.settledId()));
+        return headers;
+    }
+
+    // Incremental sync: creations and tombstones of deleted appointments after the "since" change
+    // id, oldest first. Pass the id of the last change received as the next "since", or the
+    // X-Change-Version of a 204. 410 means the changes after "since" were purged and the client has
+    // to download everything again, starting over from the X-Change-Version of that download.
+    @GetMapping("/appointments/changes")
+    public ResponseEntity<List<AppointmentChange>> getAppointmentChanges(@RequestParam("since") long since,
+                                                                         @RequestParam(value = "limit", required = false) Integer limit){
+        if (since < 0){
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        long settledId = appointmentChangeFeed.settledId();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(CHANGE_VERSION_HEADER, String.valueOf(settledId));
+        Long firstId = appointmentChangeRepository.findFirstId();
+        if (since < (firstId == null ? settledId : firstId - 1)){
+            return new ResponseEntity<>(headers, HttpStatus.GONE);
         }
 
-        return new ResponseEntity<>(appointments, HttpStatus.OK);
+        int pageSize = Pagination.pageSize(limit);
+        List<AppointmentChange> changes = appointmentChangeRepository.findBetween(since, settledId, Pagination.firstRows(pageSize));
+        return Pagination.page(changes, pageSize, AppointmentChange::getId, headers);
+    }
+
+    // Pushes every create and delete as it commits. Reconnecting clients send the last id they got
+    // as Last-Event-ID and are replayed what they missed first.
+    @GetMapping(value = "/appointments/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAppointments(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId){
+        return appointmentChangeFeed.subscribe(lastEventId);
     }
 
     @GetMapping("/appointments/{id}")
-    public ResponseEntity<Appointment> getAppointmentById(@PathVariable("id") long id){
-        Optional<Appointment> appointment = appointmentRepository.findById(id);
+    public ResponseEntity<AppointmentView> getAppointmentById(@PathVariable("id") long id, WebRequest request){
+        if (request.checkNotModified(collectionVersions.etag(CollectionVersions.APPOINTMENTS))){
+            return null;
+        }
+
+        Optional<AppointmentView> appointment = appointmentRepository.findViewById(id);
 
         if (appointment.isPresent()){
             return new ResponseEntity<>(appointment.get(),HttpStatus.OK);
@@ -56,19 +179,177 @@ public class AppointmentController {
 
     @PostMapping("/appointment")
     public ResponseEntity<Appointment>createAppointment(@RequestBody Appointment newAppointment){
-        List<Appointment> dataBaseAppointments = appointmentRepository.findAll();
+        if (!hasValidDuration(newAppointment) || !hasReferences(newAppointment)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        ResponseEntity<Appointment> response;
+        try {
+            response = bookingLocks.runLocked(newAppointment, () -> book(newAppointment));
+        } catch (DataIntegrityViolationException e) {
+            // The patient or doctor id does not exist: the foreign keys reject the insert
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (response.getStatusCode() == HttpStatus.OK) {
+            collectionVersions.bump(CollectionVersions.APPOINTMENTS);
+        }
+        return response;
+    }
+
+    private ResponseEntity<Appointment> book(Appointment newAppointment){
+        // Row locks on the room, the doctor and the patient keep other application nodes from
+        // booking any of them until we commit. Every booking takes them in this order: rooms,
+        // then doctors, then patients, each by key, so two bookings cannot deadlock.
+        Optional<Room> room = roomRepository.findByRoomNameForUpdate(newAppointment.getRoom().getRoomName());
+        if (!room.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        long doctorId = newAppointment.getDoctor().getId();
+        long patientId = newAppointment.getPatient().getId();
+        if (doctorRepository.findAllByIdForUpdate(Collections.singleton(doctorId)).isEmpty()
+                || patientRepository.findAllByIdForUpdate(Collections.singleton(patientId)).isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        boolean isConflicting = appointmentRepository.existsConflicting(room.get().getRoomName(),
+                doctorId, patientId, newAppointment.getStartsAt(), newAppointment.getFinishesAt())
+                || overlapsSeries(newAppointment, room.get().getRoomName(), doctorId, patientId);
+        if (isConflicting) {
+            return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+        }
+        setReferences(newAppointment, room.get());
+        Appointment savedAppointment = appointmentRepository.save(newAppointment);
+        roomUtilization.booked(Collections.singletonList(savedAppointment));
+        appointmentChanges.created(Collections.singletonList(savedAppointment));
+        return new ResponseEntity<>(savedAppointment, HttpStatus.OK);
+    }
 
-        for (Appointment appointment : dataBaseAppointments) {
-            if (appointment.overlaps(newAppointment)) {
-                return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+    private boolean overlapsSeries(Appointment newAppointment, String roomName, long doctorId, long patientId){
+        for (BookedSeries series : recurringAppointmentRepository.findBookedSeries(Collections.singleton(roomName),
+                Collections.singleton(doctorId), Collections.singleton(patientId),
+                newAppointment.getStartsAt(), newAppointment.getFinishesAt())) {
+            if (series.overlaps(newAppointment.getStartsAt(), newAppointment.getFinishesAt())) {
+                return true;
             }
         }
-        boolean isValidTotalDurationAppointment = newAppointment.getStartsAt().isBefore(newAppointment.getFinishesAt());
-        if (isValidTotalDurationAppointment) {
-            Appointment savedAppointment = appointmentRepository.save(newAppointment);
-            return new ResponseEntity<>(savedAppointment, HttpStatus.OK);
+        return false;
+    }
+
+    @PostMapping("/appointments/batch")
+    public ResponseEntity<List<AppointmentBatchResult>> createAppointments(@RequestBody List<Appointment> newAppointments){
+        AppointmentBatchResult[] results = new AppointmentBatchResult[newAppointments.size()];
+        List<Integer> validIndexes = new ArrayList<>();
+        List<Appointment> validAppointments = new ArrayList<>();
+
+        for (int i = 0; i < newAppointments.size(); i++) {
+            Appointment newAppointment = newAppointments.get(i);
+            if (newAppointment != null && hasValidDuration(newAppointment) && hasReferences(newAppointment)) {
+                validIndexes.add(i);
+                validAppointments.add(newAppointment);
+            } else {
+                results[i] = new AppointmentBatchResult(i, HttpStatus.BAD_REQUEST, newAppointment);
+            }
+        }
+
+        if (!validAppointments.isEmpty()) {
+            bookingLocks.runLocked(validAppointments, () -> bookAll(validIndexes, validAppointments, results));
+            collectionVersions.bump(CollectionVersions.APPOINTMENTS);
         }
-        return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<>(Arrays.asList(results), HttpStatus.OK);
+    }
+
+    private AppointmentBatchResult[] bookAll(List<Integer> indexes, List<Appointment> newAppointments, AppointmentBatchResult[] results){
+        Set<String> roomNames = new HashSet<>();
+        Set<Long> doctorIds = new HashSet<>();
+        Set<Long> patientIds = new HashSet<>();
+        for (Appointment newAppointment : newAppointments) {
+            roomNames.add(newAppointment.getRoom().getRoomName());
+            doctorIds.add(newAppointment.getDoctor().getId());
+            patientIds.add(newAppointment.getPatient().getId());
+        }
+
+        // Same row locks as single bookings and in the same order, so that batches cannot deadlock
+        Map<String, Room> lockedRooms = new HashMap<>();
+        for (Room room : roomRepository.findAllByRoomNameForUpdate(roomNames)) {
+            lockedRooms.put(room.getRoomName(), room);
+        }
+        // Unknown ids are rejected item by item here rather than by the foreign keys, which
+        // would fail the whole insert batch
+        Set<Long> knownDoctorIds = new HashSet<>();
+        for (Doctor doctor : doctorRepository.findAllByIdForUpdate(doctorIds)) {
+            knownDoctorIds.add(doctor.getId());
+        }
+        Set<Long> knownPatientIds = new HashSet<>();
+        for (Patient patient : patientRepository.findAllByIdForUpdate(patientIds)) {
+            knownPatientIds.add(patient.getId());
+        }
+
+        List<Integer> resolvedIndexes = new ArrayList<>();
+        List<Appointment> resolved = new ArrayList<>();
+        List<BookedSlot> candidates = new ArrayList<>();
+        LocalDateTime windowStart = null;
+        LocalDateTime windowEnd = null;
+        for (int i = 0; i < newAppointments.size(); i++) {
+            Appointment newAppointment = newAppointments.get(i);
+            Room room = lockedRooms.get(newAppointment.getRoom().getRoomName());
+            if (room == null || !knownDoctorIds.contains(newAppointment.getDoctor().getId())
+                    || !knownPatientIds.contains(newAppointment.getPatient().getId())) {
+                results[indexes.get(i)] = new AppointmentBatchResult(indexes.get(i), HttpStatus.BAD_REQUEST, newAppointment);
+                continue;
+            }
+            BookedSlot candidate = BookedSlot.of(newAppointment);
+            candidates.add(candidate);
+            windowStart = windowStart == null || candidate.getStartsAt().isBefore(windowStart) ? candidate.getStartsAt() : windowStart;
+            windowEnd = windowEnd == null || candidate.getFinishesAt().isAfter(windowEnd) ? candidate.getFinishesAt() : windowEnd;
+            setReferences(newAppointment, room);
+            resolved.add(newAppointment);
+            resolvedIndexes.add(indexes.get(i));
+        }
+        if (resolved.isEmpty()) {
+            return results;
+        }
+
+        List<BookedSlot> stored = appointmentRepository.findBookedSlots(roomNames, doctorIds, patientIds, windowStart, windowEnd);
+        List<BookedSeries> storedSeries = recurringAppointmentRepository.findBookedSeries(roomNames, doctorIds, patientIds, windowStart, windowEnd);
+        Set<Integer> conflicts = ConflictSweep.findConflicts(candidates, stored, storedSeries);
+
+        List<Appointment> accepted = new ArrayList<>();
+        List<Integer> acceptedIndexes = new ArrayList<>();
+        for (int i = 0; i < resolved.size(); i++) {
+            if (conflicts.contains(i)) {
+                results[resolvedIndexes.get(i)] = new AppointmentBatchResult(resolvedIndexes.get(i), HttpStatus.NOT_ACCEPTABLE, resolved.get(i));
+                continue;
+            }
+            accepted.add(resolved.get(i));
+            acceptedIndexes.add(resolvedIndexes.get(i));
+        }
+
+        List<Appointment> savedAppointments = appointmentRepository.saveAll(accepted);
+        roomUtilization.booked(savedAppointments);
+        appointmentChanges.created(savedAppointments);
+        for (int i = 0; i < savedAppointments.size(); i++) {
+            results[acceptedIndexes.get(i)] = new AppointmentBatchResult(acceptedIndexes.get(i), HttpStatus.OK, savedAppointments.get(i));
+        }
+        return results;
+    }
+
+    private static boolean hasValidDuration(Appointment appointment){
+        return appointment.getStartsAt() != null && appointment.getFinishesAt() != null
+                && appointment.getStartsAt().isBefore(appointment.getFinishesAt())
+                && !appointment.getFinishesAt().isAfter(appointment.getStartsAt().plus(Appointment.MAX_DURATION));
+    }
+
+    private static boolean hasReferences(Appointment appointment){
+        return appointment.getRoom() != null && appointment.getRoom().getRoomName() != null
+                && appointment.getDoctor() != null && appointment.getDoctor().getId() != 0
+                && appointment.getPatient() != null && appointment.getPatient().getId() != 0;
+    }
+
+    // Only the ids sent by the client are kept: the doctor and patient become lazy references,
+    // so booking neither reads nor merges their rows
+    private void setReferences(Appointment appointment, Room room){
+        appointment.setRoom(room);
+        appointment.setDoctor(doctorRepository.getReferenceById(appointment.getDoctor().getId()));
+        appointment.setPatient(patientRepository.getReferenceById(appointment.getPatient().getId()));
     }
 
     @DeleteMapping("/appointments/{id}")
@@ -80,7 +361,14 @@ public class AppointmentController {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
 
-        appointmentRepository.deleteById(id);
+        // Under the booking locks so the room totals move together with the appointment
+        bookingLocks.runLocked(appointment.get(), () -> {
+            appointmentRepository.deleteById(id);
+            roomUtilization.released(appointment.get());
+            appointmentChanges.deleted(appointment.get());
+            return null;
+        });
+        collectionVersions.bump(CollectionVersions.APPOINTMENTS);
 
         return new ResponseEntity<>(HttpStatus.OK);
 
@@ -88,7 +376,14 @@ public class AppointmentController {
 
     @DeleteMapping("/appointments")
     public ResponseEntity<HttpStatus> deleteAllAppointments(){
-        appointmentRepository.deleteAll();
+        // No stripes to take, only the shared transaction
+        bookingLocks.runLocked(Collections.<Appointment>emptyList(), () -> {
+            appointmentRepository.deleteAll();
+            roomUtilization.clear();
+            appointmentChanges.cleared();
+            return null;
+        });
+        collectionVersions.bump(CollectionVersions.APPOINTMENTS);
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
@@ -2,21 +2,39 @@ package com.example.demo.controllers;
 
 import com.example.demo.repositories.*;
 import com.example.demo.entities.Doctor;
-
+import com.example.demo.dto.AppointmentView;
+import com.example.demo.dto.PersonView;
+import com.example.demo.dto.RecurringAppointmentView;
+import com.example.demo.dto.TimeSlot;
+import com.example.demo.services.CollectionVersions;
+import com.example.demo.services.PersonImporter;
+import com.example.demo.services.FreeSlots;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 @RestController
@@ -26,11 +44,33 @@ public class DoctorController {
     @Autowired
     DoctorRepository doctorRepository;
 
+    @Autowired
+    AppointmentRepository appointmentRepository;
+
+    @Autowired
+    RecurringAppointmentRepository recurringAppointmentRepository;
+
+    @Autowired
+    CollectionVersions collectionVersions;
+
+    @Autowired
+    PersonImporter personImporter;
+
     @GetMapping("/doctors")
-    public ResponseEntity<List<Doctor>> getAllDoctors(){
-        List<Doctor> doctors = new ArrayList<>();
+    public ResponseEntity<List<PersonView>> getAllDoctors(@RequestParam(value = "after", required = false) Long after,
+                                                      @RequestParam(value = "limit", required = false) Integer limit,
+                                                      WebRequest request){
+        if (request.checkNotModified(collectionVersions.etag(CollectionVersions.DOCTORS))){
+            return null;
+        }
 
-        doctorRepository.findAll().forEach(doctors::add);
+        if (Pagination.isRequested(after, limit)){
+            int pageSize = Pagination.pageSize(limit);
+            List<PersonView> page = doctorRepository.findViewsByIdGreaterThan(after == null ? 0 : after, Pagination.firstRows(pageSize));
+            return Pagination.page(page, pageSize, PersonView::getId);
+        }
+
+        List<PersonView> doctors = doctorRepository.findAllViews();
 
         if (doctors.isEmpty()){
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
@@ -40,8 +80,12 @@ public class DoctorController {
     }
 
     @GetMapping("/doctors/{id}")
-    public ResponseEntity<Doctor> getDoctorById(@PathVariable("id") long id){
-        Optional<Doctor> doctor = doctorRepository.findById(id);
+    public ResponseEntity<PersonView> getDoctorById(@PathVariable("id") long id, WebRequest request){
+        if (request.checkNotModified(collectionVersions.etag(CollectionVersions.DOCTORS))){
+            return null;
+        }
+
+        Optional<PersonView> doctor = doctorRepository.findViewById(id);
         if (! doctor.isPresent()){
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
@@ -49,13 +93,73 @@ public class DoctorController {
         return new ResponseEntity<>(doctor.get(),HttpStatus.OK);
     }
 
+    @GetMapping("/doctors/{id}/free-slots")
+    public ResponseEntity<List<TimeSlot>> getFreeSlots(@PathVariable("id") long id,
+                                                       @RequestParam("from") @DateTimeFormat(pattern = "HH:mm dd/MM/yyyy") LocalDateTime from,
+                                                       @RequestParam("to") @DateTimeFormat(pattern = "HH:mm dd/MM/yyyy") LocalDateTime to,
+                                                       @RequestParam("duration") long duration){
+        // duration is in minutes
+        if (!from.isBefore(to) || duration <= 0){
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (!doctorRepository.existsById(id)){
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        List<TimeSlot> busy = FreeSlots.busyWithSeries(appointmentRepository.findDoctorBusySlots(id, from, to),
+                recurringAppointmentRepository.findDoctorSeries(id, from, to), from, to);
+        List<TimeSlot> free = FreeSlots.between(from, to, Duration.ofMinutes(duration), busy);
+
+        if (free.isEmpty()){
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+
+        return new ResponseEntity<>(free, HttpStatus.OK);
+    }
+
+    @GetMapping("/doctors/{id}/appointments")
+    public ResponseEntity<List<AppointmentView>> getSchedule(@PathVariable("id") long id,
+                                                             @RequestParam("from") @DateTimeFormat(pattern = "HH:mm dd/MM/yyyy") LocalDateTime from,
+                                                             @RequestParam("to") @DateTimeFormat(pattern = "HH:mm dd/MM/yyyy") LocalDateTime to){
+        if (!from.isBefore(to)){
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        List<AppointmentView> schedule = appointmentRepository.findDoctorScheduleViews(id, from, to);
+        List<RecurringAppointmentView> series = recurringAppointmentRepository.findDoctorSeriesViews(id, from, to);
+        if (!series.isEmpty()){
+            schedule = new ArrayList<>(schedule);
+            for (RecurringAppointmentView one : series) {
+                schedule.addAll(one.occurrencesStartingBetween(from, to));
+            }
+            schedule.sort(Comparator.comparing(AppointmentView::getStartsAt).thenComparingLong(AppointmentView::getId));
+        }
+
+        // Only an empty schedule needs the extra lookup to tell an idle doctor from an unknown one
+        if (schedule.isEmpty()){
+            return new ResponseEntity<>(doctorRepository.existsById(id) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+        }
+
+        return new ResponseEntity<>(schedule, HttpStatus.OK);
+    }
+
     @PostMapping("/doctor")
     public ResponseEntity<Doctor> createDoctor(@RequestBody Doctor doc){
         Doctor d = new Doctor(doc.getFirstName(), doc.getLastName(), doc.getAge(), doc.getEmail());
         doctorRepository.save(d);
+        collectionVersions.bump(CollectionVersions.DOCTORS);
         return new ResponseEntity<>(d, HttpStatus.CREATED);
     }
 
+    @PostMapping(value = "/doctors/import", consumes = "text/csv", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> importDoctors(HttpServletRequest request){
+        StreamingResponseBody report = out -> personImporter.importDoctors(request.getInputStream(), out,
+                () -> collectionVersions.bump(CollectionVersions.DOCTORS));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_NDJSON);
+        return new ResponseEntity<>(report, headers, HttpStatus.OK);
+    }
+
     @DeleteMapping("/doctors/{id}")
     public ResponseEntity<HttpStatus> deleteDoctor(@PathVariable("id") long id){
         Optional<Doctor> doctor = doctorRepository.findById(id);
@@ -65,12 +169,14 @@ public class DoctorController {
         }
 
         doctorRepository.deleteById(id);
+        collectionVersions.bump(CollectionVersions.DOCTORS);
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
     @DeleteMapping("/doctors")
     public ResponseEntity<HttpStatus> deleteAllDoctors(){
         doctorRepository.deleteAll();
+        collectionVersions.bump(CollectionVersions.DOCTORS);
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
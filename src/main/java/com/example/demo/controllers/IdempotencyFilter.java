@@ -0,0 +1,193 @@
+package com.example.demo.controllers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+// Lets clients retry the create endpoints safely. The first request carrying an Idempotency-Key
+// runs as usual and its response is kept. A retry with the same key and body gets that response
+// back without reaching the controller. A retry while the first one is still running gets 409, and
+// the same key with a different body gets 422. Server errors are not kept, so those can be retried.
+@Component
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    static final String KEY_HEADER = "Idempotency-Key";
+    static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    static final int MAX_KEY_LENGTH = 255;
+
+    private static final Set<String> CREATE_PATHS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "/api/appointment", "/api/appointments/batch", "/api/recurring-appointment", "/api/doctor", "/api/patient", "/api/room")));
+
+    // Bounded and expiring, so keys from clients that never retry do not pile up
+    private final ConcurrentMap<String, StoredResponse> responses;
+
+    public IdempotencyFilter(@Value("${idempotency.caffeine.spec:maximumSize=10000,expireAfterWrite=24h}") String spec){
+        this.responses = Caffeine.from(spec).<String, StoredResponse>build().asMap();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request){
+        return !"POST".equals(request.getMethod()) || request.getHeader(KEY_HEADER) == null
+                || !CREATE_PATHS.contains(request.getRequestURI().substring(request.getContextPath().length()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String key = request.getHeader(KEY_HEADER);
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            response.sendError(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        // Keys are per endpoint, so one key reused on two endpoints never returns the wrong response
+        String scopedKey = request.getRequestURI() + " " + key;
+        byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+        byte[] fingerprint = sha256(body);
+
+        StoredResponse running = new StoredResponse(fingerprint);
+        StoredResponse stored = responses.putIfAbsent(scopedKey, running);
+        if (stored != null) {
+            replay(stored, fingerprint, response);
+            return;
+        }
+
+        ContentCachingResponseWrapper captured = new ContentCachingResponseWrapper(response);
+        boolean kept = false;
+        try {
+            chain.doFilter(new BufferedBodyRequest(request, body), captured);
+            if (captured.getStatus() < 500) {
+                responses.put(scopedKey, running.complete(captured.getStatus(), captured.getContentType(), captured.getContentAsByteArray()));
+                kept = true;
+            }
+        } finally {
+            if (!kept) {
+                responses.remove(scopedKey, running);
+            }
+            captured.copyBodyToResponse();
+        }
+    }
+
+    private static void replay(StoredResponse stored, byte[] fingerprint, HttpServletResponse response) throws IOException {
+        if (!MessageDigest.isEqual(stored.fingerprint, fingerprint)) {
+            response.sendError(HttpStatus.UNPROCESSABLE_ENTITY.value());
+            return;
+        }
+        if (stored.body == null) {
+            response.sendError(HttpStatus.CONFLICT.value());
+            return;
+        }
+        response.setStatus(stored.status);
+        if (stored.contentType != null) {
+            response.setContentType(stored.contentType);
+        }
+        response.setHeader(REPLAYED_HEADER, "true");
+        response.setContentLength(stored.body.length);
+        response.getOutputStream().write(stored.body);
+    }
+
+    private static byte[] sha256(byte[] body){
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Response of a keyed request, or a placeholder while that request is still running (no body yet)
+    private static final class StoredResponse {
+
+        private final byte[] fingerprint;
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        StoredResponse(byte[] fingerprint){
+            this(fingerprint, 0, null, null);
+        }
+
+        private StoredResponse(byte[] fingerprint, int status, String contentType, byte[] body){
+            this.fingerprint = fingerprint;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        StoredResponse complete(int status, String contentType, byte[] body){
+            return new StoredResponse(fingerprint, status, contentType, body);
+        }
+    }
+
+    // The body was read up front to fingerprint it, so the controller reads it from here
+    private static final class BufferedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        BufferedBodyRequest(HttpServletRequest request, byte[] body){
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream(){
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read(){
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len){
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public boolean isFinished(){
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady(){
+                    return true;
+                }
+
+                // Everything is already in memory, so the listener hears at once that it can read all of it
+                @Override
+                public void setReadListener(ReadListener listener){
+                    try {
+                        listener.onDataAvailable();
+                        listener.onAllDataRead();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.example.demo.controllers;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+// Keyset pagination shared by the list endpoints: ?after=<last key seen>&limit=N.
+// Pages are read with "key > :after order by key", so every page costs the same index seek.
+final class Pagination {
+
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 500;
+
+    private Pagination(){
+    }
+
+    static boolean isRequested(Object after, Integer limit){
+        return after != null || limit != null;
+    }
+
+    static int pageSize(Integer limit){
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    static Pageable firstRows(int pageSize){
+        return PageRequest.of(0, pageSize);
+    }
+
+    // Cursor of lists keyed on (time, id), such as a patient's history: "2023-04-24T19:30_42"
+    static String timeCursor(LocalDateTime time, long id){
+        return time + "_" + id;
+    }
+
+    static LocalDateTime cursorTime(String cursor){
+        return LocalDateTime.parse(cursor.substring(0, separatorOf(cursor)));
+    }
+
+    static long cursorId(String cursor){
+        return Long.parseLong(cursor.substring(separatorOf(cursor) + 1));
+    }
+
+    private static int separatorOf(String cursor){
+        int separator = cursor.lastIndexOf('_');
+        if (separator < 0){
+            throw new DateTimeParseException("Not a time cursor", cursor, 0);
+        }
+        return separator;
+    }
+
+    static <T> ResponseEntity<List<T>> page(List<T> rows, int pageSize, Function<T, Object> keyOf){
+        return page(rows, pageSize, keyOf, new HttpHeaders());
+    }
+
+    static <T> ResponseEntity<List<T>> page(List<T> rows, int pageSize, Function<T, Object> keyOf, HttpHeaders headers){
+        if (rows.isEmpty()){
+            return new ResponseEntity<>(headers, HttpStatus.NO_CONTENT);
+        }
+        if (rows.size() == pageSize){
+            headers.set(NEXT_CURSOR_HEADER, String.valueOf(keyOf.apply(rows.get(rows.size() - 1))));
+        }
+        return new ResponseEntity<>(rows, headers, HttpStatus.OK);
+    }
+
+}
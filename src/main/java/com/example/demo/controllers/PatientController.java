@@ -3,12 +3,24 @@ package com.example.demo.controllers;
 
 import com.example.demo.repositories.*;
 import com.example.demo.entities.Patient;
-
+import com.example.demo.dto.AppointmentView;
+import com.example.demo.dto.PersonView;
+import com.example.demo.dto.RecurringAppointmentView;
+import com.example.demo.services.CollectionVersions;
+import com.example.demo.services.PersonImporter;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -17,21 +29,49 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 @RestController
 @RequestMapping("/api")
 public class PatientController {
 
+    private static final Comparator<AppointmentView> HISTORY_ORDER =
+            Comparator.comparing(AppointmentView::getStartsAt).thenComparingLong(AppointmentView::getId).reversed();
+
     @Autowired
     PatientRepository patientRepository;
 
+    @Autowired
+    AppointmentRepository appointmentRepository;
+
+    @Autowired
+    RecurringAppointmentRepository recurringAppointmentRepository;
+
+    @Autowired
+    CollectionVersions collectionVersions;
+
+    @Autowired
+    PersonImporter personImporter;
+
     @GetMapping("/patients")
-    public ResponseEntity<List<Patient>> getAllPatients(){
-        List<Patient> patients = new ArrayList<>();
+    public ResponseEntity<List<PersonView>> getAllPatients(@RequestParam(value = "after", required = false) Long after,
+                                                        @RequestParam(value = "limit", required = false) Integer limit,
+                                                        WebRequest request){
+        if (request.checkNotModified(collectionVersions.etag(CollectionVersions.PATIENTS))){
+            return null;
+        }
+
+        if (Pagination.isRequested(after, limit)){
+            int pageSize = Pagination.pageSize(limit);
+            List<PersonView> page = patientRepository.findViewsByIdGreaterThan(after == null ? 0 : after, Pagination.firstRows(pageSize));
+            return Pagination.page(page, pageSize, PersonView::getId);
+        }
 
-        patientRepository.findAll().forEach(patients::add);
+        List<PersonView> patients = patientRepository.findAllViews();
 
         if (patients.isEmpty()){
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
@@ -41,21 +81,76 @@ public class PatientController {
     }
 
     @GetMapping("/patients/{id}")
-    public ResponseEntity<Patient> getPatientById(@PathVariable("id") long id){
-        Optional<Patient> patient = patientRepository.findById(id);
+    public ResponseEntity<PersonView> getPatientById(@PathVariable("id") long id, WebRequest request){
+        if (request.checkNotModified(collectionVersions.etag(CollectionVersions.PATIENTS))){
+            return null;
+        }
+
+        Optional<PersonView> patient = patientRepository.findViewById(id);
         if (! patient.isPresent()){
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
         return new ResponseEntity<>(patient.get(),HttpStatus.OK);
     }
 
+    @GetMapping("/patients/{id}/appointments")
+    public ResponseEntity<List<AppointmentView>> getHistory(@PathVariable("id") long id,
+                                                            @RequestParam(value = "after", required = false) String after,
+                                                            @RequestParam(value = "limit", required = false) Integer limit){
+        int pageSize = Pagination.pageSize(limit);
+        List<AppointmentView> page;
+        List<AppointmentView> occurrences = new ArrayList<>();
+        if (after == null){
+            page = appointmentRepository.findPatientHistoryViews(id, Pagination.firstRows(pageSize));
+            for (RecurringAppointmentView series : recurringAppointmentRepository.findPatientSeriesViews(id)) {
+                occurrences.addAll(series.latestOccurrencesBefore(series.getLastFinishesAt(), true, pageSize));
+            }
+        } else {
+            try {
+                LocalDateTime startsAt = Pagination.cursorTime(after);
+                long cursorId = Pagination.cursorId(after);
+                page = appointmentRepository.findPatientHistoryViewsBefore(id, startsAt, cursorId, Pagination.firstRows(pageSize));
+                // Occurrences have id 0, so one starting at the cursor's time comes after an appointment
+                // that does, and after another occurrence it does not
+                for (RecurringAppointmentView series : recurringAppointmentRepository.findPatientSeriesViewsStartedBy(id, startsAt)) {
+                    occurrences.addAll(series.latestOccurrencesBefore(startsAt, cursorId > 0, pageSize));
+                }
+            } catch (DateTimeException | NumberFormatException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        }
+
+        // Each source holds its newest pageSize entries past the cursor, so the merged page is exact
+        if (!occurrences.isEmpty()){
+            occurrences.addAll(page);
+            occurrences.sort(HISTORY_ORDER);
+            page = occurrences.subList(0, Math.min(pageSize, occurrences.size()));
+        }
+
+        if (page.isEmpty() && after == null && !patientRepository.existsById(id)){
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        return Pagination.page(page, pageSize, view -> Pagination.timeCursor(view.getStartsAt(), view.getId()));
+    }
+
     @PostMapping("/patient")
     public ResponseEntity<Patient> createPatient(@RequestBody Patient pat){
         Patient d = new Patient(pat.getFirstName(), pat.getLastName(), pat.getAge(), pat.getEmail());
         patientRepository.save(d);
+        collectionVersions.bump(CollectionVersions.PATIENTS);
         return new ResponseEntity<>(d, HttpStatus.CREATED);
     }
 
+    @PostMapping(value = "/patients/import", consumes = "text/csv", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> importPatients(HttpServletRequest request){
+        StreamingResponseBody report = out -> personImporter.importPatients(request.getInputStream(), out,
+                () -> collectionVersions.bump(CollectionVersions.PATIENTS));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_NDJSON);
+        return new ResponseEntity<>(report, headers, HttpStatus.OK);
+    }
+
     @DeleteMapping("/patients/{id}")
     public ResponseEntity<HttpStatus> deletePatient(@PathVariable("id") long id){
         Optional<Patient> patient = patientRepository.findById(id);
@@ -63,12 +158,14 @@ public class PatientController {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
         patientRepository.deleteById(id);
+        collectionVersions.bump(CollectionVersions.PATIENTS);
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
     @DeleteMapping("/patients")
     public ResponseEntity<HttpStatus> deleteAllPatients(){
         patientRepository.deleteAll();
+        collectionVersions.bump(CollectionVersions.PATIENTS);
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
@@ -0,0 +1,207 @@
+package com.example.demo.controllers;
+
+import com.example.demo.repositories.*;
+import com.example.demo.entities.*;
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.BookedSlot;
+import com.example.demo.dto.RecurringAppointmentView;
+import com.example.demo.dto.TimeSlot;
+import com.example.demo.services.AppointmentChanges;
+import com.example.demo.services.BookingLocks;
+import com.example.demo.services.CollectionVersions;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+
+@RestController
+@RequestMapping("/api")
+public class RecurringAppointmentController {
+
+    // Ten years of weekly sessions
+    static final int MAX_OCCURRENCES = 520;
+    static final int MAX_REPEAT_EVERY_DAYS = 365;
+
+    @Autowired
+    RecurringAppointmentRepository recurringAppointmentRepository;
+
+    @Autowired
+    AppointmentRepository appointmentRepository;
+
+    @Autowired
+    RoomRepository roomRepository;
+
+    @Autowired
+    DoctorRepository doctorRepository;
+
+    @Autowired
+    PatientRepository patientRepository;
+
+    @Autowired
+    BookingLocks bookingLocks;
+
+    @Autowired
+    AppointmentChanges appointmentChanges;
+
+    @Autowired
+    CollectionVersions collectionVersions;
+
+    @GetMapping("/recurring-appointments")
+    public ResponseEntity<List<RecurringAppointmentView>> getAllRecurringAppointments(@RequestParam(value = "after", required = false) Long after,
+                                                                                      @RequestParam(value = "limit", required = false) Integer limit){
+        if (Pagination.isRequested(after, limit)){
+            int pageSize = Pagination.pageSize(limit);
+            List<RecurringAppointmentView> page = recurringAppointmentRepository.findViewsByIdGreaterThan(after == null ? 0 : after, Pagination.firstRows(pageSize));
+            return Pagination.page(page, pageSize, RecurringAppointmentView::getId);
+        }
+
+        List<RecurringAppointmentView> series = recurringAppointmentRepository.findAllViews();
+
+        if (series.isEmpty()){
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+
+        return new ResponseEntity<>(series, HttpStatus.OK);
+    }
+
+    @GetMapping("/recurring-appointments/{id}")
+    public ResponseEntity<RecurringAppointmentView> getRecurringAppointmentById(@PathVariable("id") long id){
+        Optional<RecurringAppointmentView> series = recurringAppointmentRepository.findViewById(id);
+
+        if (!series.isPresent()){
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        return new ResponseEntity<>(series.get(), HttpStatus.OK);
+    }
+
+    @GetMapping("/recurring-appointments/{id}/occurrences")
+    public ResponseEntity<List<TimeSlot>> getOccurrences(@PathVariable("id") long id,
+                                                         @RequestParam("from") @DateTimeFormat(pattern = "HH:mm dd/MM/yyyy") LocalDateTime from,
+                                                         @RequestParam("to") @DateTimeFormat(pattern = "HH:mm dd/MM/yyyy") LocalDateTime to){
+        if (!from.isBefore(to)){
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        Optional<BookedSeries> series = recurringAppointmentRepository.findSeriesById(id);
+        if (!series.isPresent()){
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        List<TimeSlot> occurrences = series.get().occurrencesBetween(from, to);
+        if (occurrences.isEmpty()){
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+
+        return new ResponseEntity<>(occurrences, HttpStatus.OK);
+    }
+
+    @PostMapping("/recurring-appointment")
+    public ResponseEntity<RecurringAppointment> createRecurringAppointment(@RequestBody RecurringAppointment newSeries){
+        if (!isValid(newSeries)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        BookedSeries series = BookedSeries.of(newSeries);
+        ResponseEntity<RecurringAppointment> response;
+        try {
+            response = bookingLocks.runLocked(series, () -> book(newSeries, series));
+        } catch (DataIntegrityViolationException e) {
+            // The patient or doctor id does not exist: the foreign keys reject the insert
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        // Series occupy appointment slots, so clients caching the appointments have to look again
+        if (response.getStatusCode() == HttpStatus.OK) {
+            collectionVersions.bump(CollectionVersions.APPOINTMENTS);
+        }
+        return response;
+    }
+
+    private ResponseEntity<RecurringAppointment> book(RecurringAppointment newSeries, BookedSeries series){
+        // Same row locks as single bookings and in the same order, so other nodes cannot book the
+        // room, the doctor or the patient meanwhile
+        Optional<Room> room = roomRepository.findByRoomNameForUpdate(newSeries.getRoom().getRoomName());
+        if (!room.isPresent()
+                || doctorRepository.findAllByIdForUpdate(Collections.singleton(newSeries.getDoctor().getId())).isEmpty()
+                || patientRepository.findAllByIdForUpdate(Collections.singleton(newSeries.getPatient().getId())).isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        // Everything stored within the span of the series is checked against the occurrence
+        // formula, one constant-time check per appointment and one walk per other series
+        List<String> roomNames = Collections.singletonList(room.get().getRoomName());
+        List<Long> doctorIds = Collections.singletonList(newSeries.getDoctor().getId());
+        List<Long> patientIds = Collections.singletonList(newSeries.getPatient().getId());
+        LocalDateTime from = series.getStartsAt();
+        LocalDateTime to = series.getLastFinishesAt();
+        for (BookedSlot slot : appointmentRepository.findBookedSlots(roomNames, doctorIds, patientIds, from, to)) {
+            if (series.overlaps(slot.getStartsAt(), slot.getFinishesAt())) {
+                return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+            }
+        }
+        for (BookedSeries other : recurringAppointmentRepository.findBookedSeries(roomNames, doctorIds, patientIds, from, to)) {
+            if (series.overlaps(other)) {
+                return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+            }
+        }
+
+        newSeries.setRoom(room.get());
+        newSeries.setDoctor(doctorRepository.getReferenceById(newSeries.getDoctor().getId()));
+        newSeries.setPatient(patientRepository.getReferenceById(newSeries.getPatient().getId()));
+        RecurringAppointment savedSeries = recurringAppointmentRepository.save(newSeries);
+        appointmentChanges.seriesCreated(savedSeries);
+        return new ResponseEntity<>(savedSeries, HttpStatus.OK);
+    }
+
+    // An occurrence has to finish before the next one starts, or the series would clash with itself
+    private static boolean isValid(RecurringAppointment series){
+        if (series.getStartsAt() == null || series.getFinishesAt() == null
+                || !series.getStartsAt().isBefore(series.getFinishesAt())) {
+            return false;
+        }
+        if (series.getRepeatEveryDays() < 1 || series.getRepeatEveryDays() > MAX_REPEAT_EVERY_DAYS
+                || series.getOccurrences() < 1 || series.getOccurrences() > MAX_OCCURRENCES) {
+            return false;
+        }
+        if (Duration.between(series.getStartsAt(), series.getFinishesAt()).compareTo(Duration.ofDays(series.getRepeatEveryDays())) > 0) {
+            return false;
+        }
+        return series.getRoom() != null && series.getRoom().getRoomName() != null
+                && series.getDoctor() != null && series.getDoctor().getId() != 0
+                && series.getPatient() != null && series.getPatient().getId() != 0;
+    }
+
+    @DeleteMapping("/recurring-appointments/{id}")
+    public ResponseEntity<HttpStatus> deleteRecurringAppointment(@PathVariable("id") long id){
+        Optional<RecurringAppointment> series = recurringAppointmentRepository.findById(id);
+        if (!series.isPresent()){
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        // The tombstone is written in the same transaction as the delete
+        bookingLocks.runLocked(BookedSeries.of(series.get()), () -> {
+            recurringAppointmentRepository.deleteById(id);
+            appointmentChanges.seriesDeleted(series.get());
+            return null;
+        });
+        collectionVersions.bump(CollectionVersions.APPOINTMENTS);
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+}
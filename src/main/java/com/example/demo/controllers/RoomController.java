@@ -3,35 +3,70 @@ package com.example.demo.controllers;
 
 import com.example.demo.repositories.*;
 import com.example.demo.entities.Room;
-
-import java.util.ArrayList;
+import com.example.demo.dto.DayUsage;
+import com.example.demo.dto.RoomView;
+import com.example.demo.dto.TimeSlot;
+import com.example.demo.services.CollectionVersions;
+import com.example.demo.services.FreeSlots;
+import com.example.demo.services.RoomUtilization;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 
 @RestController
 @RequestMapping("/api")
 public class RoomController {
 
+    static final int MAX_UTILIZATION_DAYS = 366;
+
     @Autowired
     RoomRepository roomRepository;
 
+    @Autowired
+    AppointmentRepository appointmentRepository;
+
+    @Autowired
+    RecurringAppointmentRepository recurringAppointmentRepository;
+
+    @Autowired
+    RoomUtilization roomUtilization;
+
+    @Autowired
+    CollectionVersions collectionVersions;
+
     @GetMapping("/rooms")
-    public ResponseEntity<List<Room>> getAllRooms(){
-        List<Room> rooms = new ArrayList<>();
+    public ResponseEntity<List<RoomView>> getAllRooms(@RequestParam(value = "after", required = false) String after,
+                                                  @RequestParam(value = "limit", required = false) Integer limit,
+                                                  WebRequest request){
+        if (request.checkNotModified(collectionVersions.etag(CollectionVersions.ROOMS))){
+            return null;
+        }
+
+        if (Pagination.isRequested(after, limit)){
+            int pageSize = Pagination.pageSize(limit);
+            List<RoomView> page = roomRepository.findViewsByRoomNameGreaterThan(after == null ? "" : after, Pagination.firstRows(pageSize));
+            return Pagination.page(page, pageSize, RoomView::getRoomName);
+        }
 
-        roomRepository.findAll().forEach(rooms::add);
+        List<RoomView> rooms = roomRepository.findAllViews();
 
         if (rooms.isEmpty()){
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
@@ -41,18 +76,62 @@ public class RoomController {
     }
 
     @GetMapping("/rooms/{roomName}")
-    public ResponseEntity<Room> getRoomByRoomName(@PathVariable("roomName") String roomName){
-        Optional<Room> room = roomRepository.findByRoomName(roomName);
+    public ResponseEntity<RoomView> getRoomByRoomName(@PathVariable("roomName") String roomName, WebRequest request){
+        if (request.checkNotModified(collectionVersions.etag(CollectionVersions.ROOMS))){
+            return null;
+        }
+
+        Optional<RoomView> room = roomRepository.findViewByRoomName(roomName);
         if (!room.isPresent()){
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
         return new ResponseEntity<>(room.get(), HttpStatus.OK);
     }
 
+    @GetMapping("/rooms/{roomName}/free-slots")
+    public ResponseEntity<List<TimeSlot>> getFreeSlots(@PathVariable("roomName") String roomName,
+                                                       @RequestParam("from") @DateTimeFormat(pattern = "HH:mm dd/MM/yyyy") LocalDateTime from,
+                                                       @RequestParam("to") @DateTimeFormat(pattern = "HH:mm dd/MM/yyyy") LocalDateTime to,
+                                                       @RequestParam("duration") long duration){
+        // duration is in minutes
+        if (!from.isBefore(to) || duration <= 0){
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (!roomRepository.findByRoomName(roomName).isPresent()){
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        List<TimeSlot> busy = FreeSlots.busyWithSeries(appointmentRepository.findRoomBusySlots(roomName, from, to),
+                recurringAppointmentRepository.findRoomSeries(roomName, from, to), from, to);
+        List<TimeSlot> free = FreeSlots.between(from, to, Duration.ofMinutes(duration), busy);
+
+        if (free.isEmpty()){
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+
+        return new ResponseEntity<>(free, HttpStatus.OK);
+    }
+
+    @GetMapping("/rooms/{roomName}/utilization")
+    public ResponseEntity<List<DayUsage>> getUtilization(@PathVariable("roomName") String roomName,
+                                                         @RequestParam("from") @DateTimeFormat(pattern = "dd/MM/yyyy") LocalDate from,
+                                                         @RequestParam("to") @DateTimeFormat(pattern = "dd/MM/yyyy") LocalDate to){
+        // Both days are included, and the answer has one entry per day
+        if (to.isBefore(from) || !to.isBefore(from.plusDays(MAX_UTILIZATION_DAYS))){
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (!roomRepository.findByRoomName(roomName).isPresent()){
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        return new ResponseEntity<>(roomUtilization.between(roomName, from, to), HttpStatus.OK);
+    }
+
     @PostMapping("/room")
     public ResponseEntity<Room> createRoom(@RequestBody Room room){
         Room tmp = new Room(room.getRoomName());
         roomRepository.save(tmp);
+        collectionVersions.bump(CollectionVersions.ROOMS);
         return new ResponseEntity<>(tmp, HttpStatus.CREATED);
     }
 
@@ -63,12 +142,14 @@ public class RoomController {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
         roomRepository.deleteByRoomName(roomName);
+        collectionVersions.bump(CollectionVersions.ROOMS);
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
     @DeleteMapping("/rooms")
     public ResponseEntity<HttpStatus> deleteAllRooms(){
         roomRepository.deleteAll();
+        collectionVersions.bump(CollectionVersions.ROOMS);
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
@@ -0,0 +1,31 @@
+package com.example.demo.dto;
+
+import com.example.demo.entities.Appointment;
+
+import org.springframework.http.HttpStatus;
+
+public class AppointmentBatchResult {
+
+    private final int index;
+    private final int status;
+    private final Appointment appointment;
+
+    public AppointmentBatchResult(int index, HttpStatus status, Appointment appointment){
+        this.index = index;
+        this.status = status.value();
+        this.appointment = appointment;
+    }
+
+    public int getIndex(){
+        return this.index;
+    }
+
+    public int getStatus(){
+        return this.status;
+    }
+
+    public Appointment getAppointment(){
+        return this.appointment;
+    }
+
+}
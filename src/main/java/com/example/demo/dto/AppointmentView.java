@@ -0,0 +1,97 @@
+package com.example.demo.dto;
+
+import com.example.demo.entities.Appointment;
+
+import java.time.LocalDateTime;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Read-only copy of an appointment with the same JSON shape as the entity. Occurrences of a
+// recurring appointment have no id of their own (0) and carry the id of their series instead.
+public class AppointmentView {
+
+    private final long id;
+    private final PersonView patient;
+    private final PersonView doctor;
+    private final RoomView room;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private final LocalDateTime startsAt;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private final LocalDateTime finishesAt;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Long recurringAppointmentId;
+
+    public AppointmentView(long id, PersonView patient, PersonView doctor, RoomView room, LocalDateTime startsAt, LocalDateTime finishesAt){
+        this(id, patient, doctor, room, startsAt, finishesAt, null);
+    }
+
+    private AppointmentView(long id, PersonView patient, PersonView doctor, RoomView room, LocalDateTime startsAt, LocalDateTime finishesAt,
+                            Long recurringAppointmentId){
+        this.id = id;
+        this.patient = patient;
+        this.doctor = doctor;
+        this.room = room;
+        this.startsAt = startsAt;
+        this.finishesAt = finishesAt;
+        this.recurringAppointmentId = recurringAppointmentId;
+    }
+
+    public static AppointmentView occurrence(long recurringAppointmentId, PersonView patient, PersonView doctor, RoomView room, TimeSlot slot){
+        return new AppointmentView(0, patient, doctor, room, slot.getStartsAt(), slot.getFinishesAt(), recurringAppointmentId);
+    }
+
+    // Flat form used by JPQL constructor expressions; the associations are outer joined,
+    // so a missing patient, doctor or room arrives as a row of nulls
+    public AppointmentView(long id,
+                           Long patientId, String patientFirstName, String patientLastName, Integer patientAge, String patientEmail,
+                           Long doctorId, String doctorFirstName, String doctorLastName, Integer doctorAge, String doctorEmail,
+                           String roomName, LocalDateTime startsAt, LocalDateTime finishesAt){
+        this(id,
+                patientId == null ? null : new PersonView(patientId, patientFirstName, patientLastName, patientAge, patientEmail),
+                doctorId == null ? null : new PersonView(doctorId, doctorFirstName, doctorLastName, doctorAge, doctorEmail),
+                roomName == null ? null : new RoomView(roomName),
+                startsAt, finishesAt);
+    }
+
+    public static AppointmentView of(Appointment appointment){
+        return new AppointmentView(appointment.getId(),
+                PersonView.of(appointment.getPatient()),
+                PersonView.of(appointment.getDoctor()),
+                RoomView.of(appointment.getRoom()),
+                appointment.getStartsAt(),
+                appointment.getFinishesAt());
+    }
+
+    public long getId(){
+        return this.id;
+    }
+
+    public PersonView getPatient(){
+        return this.patient;
+    }
+
+    public PersonView getDoctor(){
+        return this.doctor;
+    }
+
+    public RoomView getRoom(){
+        return this.room;
+    }
+
+    public LocalDateTime getStartsAt(){
+        return this.startsAt;
+    }
+
+    public LocalDateTime getFinishesAt(){
+        return this.finishesAt;
+    }
+
+    public Long getRecurringAppointmentId(){
+        return this.recurringAppointmentId;
+    }
+
+}
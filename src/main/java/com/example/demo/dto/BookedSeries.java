@@ -0,0 +1,114 @@
+package com.example.demo.dto;
+
+import com.example.demo.entities.RecurringAppointment;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Times and resources of a recurring appointment. Occurrence k covers
+// [startsAt + k * period, finishesAt + k * period) for k in [0, occurrences), and every question
+// below is answered from that formula instead of expanding the whole series.
+public class BookedSeries {
+
+    private final BookedSlot first;
+    private final long periodSeconds;
+    private final long durationSeconds;
+    private final int occurrences;
+
+    public BookedSeries(String roomName, Long doctorId, Long patientId, LocalDateTime startsAt, LocalDateTime finishesAt,
+                        int repeatEveryDays, int occurrences){
+        this.first = new BookedSlot(roomName, doctorId, patientId, startsAt, finishesAt);
+        this.periodSeconds = Duration.ofDays(repeatEveryDays).getSeconds();
+        this.durationSeconds = Duration.between(startsAt, finishesAt).getSeconds();
+        this.occurrences = occurrences;
+    }
+
+    public static BookedSeries of(RecurringAppointment series){
+        return new BookedSeries(
+                series.getRoom() == null ? null : series.getRoom().getRoomName(),
+                series.getDoctor() == null ? null : series.getDoctor().getId(),
+                series.getPatient() == null ? null : series.getPatient().getId(),
+                series.getStartsAt(),
+                series.getFinishesAt(),
+                series.getRepeatEveryDays(),
+                series.getOccurrences());
+    }
+
+    public List<String> resourceKeys(){
+        return first.resourceKeys();
+    }
+
+    public LocalDateTime getStartsAt(){
+        return first.getStartsAt();
+    }
+
+    public LocalDateTime getLastFinishesAt(){
+        return first.getFinishesAt().plusSeconds(periodSeconds * (occurrences - 1));
+    }
+
+    // True when any occurrence overlaps [startsAt, finishesAt). Occurrence k does iff
+    // (startsAt - first start - duration) < k * period < (finishesAt - first start), so it is
+    // enough to check that this range of k meets [0, occurrences).
+    public boolean overlaps(LocalDateTime startsAt, LocalDateTime finishesAt){
+        long low = Duration.between(first.getStartsAt(), startsAt).getSeconds() - durationSeconds;
+        long high = Duration.between(first.getStartsAt(), finishesAt).getSeconds();
+        long firstIndex = Math.max(0, Math.floorDiv(low, periodSeconds) + 1);
+        long lastIndex = Math.min(occurrences - 1, -Math.floorDiv(-high, periodSeconds) - 1);
+        return firstIndex <= lastIndex;
+    }
+
+    // Walks the occurrences of the shorter series that fall within the span of the other one and
+    // checks each of them against the other in constant time.
+    public boolean overlaps(BookedSeries other){
+        if (other.occurrences < occurrences) {
+            return other.overlaps(this);
+        }
+        long index = firstIndexFinishingAfter(other.getStartsAt());
+        LocalDateTime otherEnd = other.getLastFinishesAt();
+        for (; index < occurrences; index++) {
+            LocalDateTime startsAt = first.getStartsAt().plusSeconds(periodSeconds * index);
+            if (!startsAt.isBefore(otherEnd)) {
+                return false;
+            }
+            if (other.overlaps(startsAt, startsAt.plusSeconds(durationSeconds))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Only the occurrences overlapping [from, to), computed starting from the first of them
+    public List<TimeSlot> occurrencesBetween(LocalDateTime from, LocalDateTime to){
+        List<TimeSlot> slots = new ArrayList<>();
+        for (long index = firstIndexFinishingAfter(from); index < occurrences; index++) {
+            LocalDateTime startsAt = first.getStartsAt().plusSeconds(periodSeconds * index);
+            if (!startsAt.isBefore(to)) {
+                break;
+            }
+            slots.add(new TimeSlot(startsAt, startsAt.plusSeconds(durationSeconds)));
+        }
+        return slots;
+    }
+
+    // Newest first, at most limit of the occurrences starting before the given time, or at it too
+    // when inclusive. Occurrence k qualifies iff k * period < (time - first start), or <= when inclusive.
+    public List<TimeSlot> latestOccurrencesBefore(LocalDateTime time, boolean inclusive, int limit){
+        Duration sinceFirst = Duration.between(first.getStartsAt(), time);
+        long seconds = inclusive || sinceFirst.getNano() > 0 ? sinceFirst.getSeconds() : sinceFirst.getSeconds() - 1;
+        long lastIndex = Math.min(occurrences - 1, Math.floorDiv(seconds, periodSeconds));
+        List<TimeSlot> slots = new ArrayList<>();
+        for (long index = lastIndex; index >= 0 && slots.size() < limit; index--) {
+            LocalDateTime startsAt = first.getStartsAt().plusSeconds(periodSeconds * index);
+            slots.add(new TimeSlot(startsAt, startsAt.plusSeconds(durationSeconds)));
+        }
+        return slots;
+    }
+
+    private long firstIndexFinishingAfter(LocalDateTime time){
+        long low = Duration.between(first.getStartsAt(), time).getSeconds() - durationSeconds;
+        return Math.max(0, Math.floorDiv(low, periodSeconds) + 1);
+    }
+
+}
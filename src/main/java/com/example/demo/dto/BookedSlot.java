@@ -0,0 +1,70 @@
+package com.example.demo.dto;
+
+import com.example.demo.entities.Appointment;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BookedSlot {
+
+    private final String roomName;
+    private final Long doctorId;
+    private final Long patientId;
+    private final LocalDateTime startsAt;
+    private final LocalDateTime finishesAt;
+
+    public BookedSlot(String roomName, Long doctorId, Long patientId, LocalDateTime startsAt, LocalDateTime finishesAt){
+        this.roomName = roomName;
+        this.doctorId = doctorId;
+        this.patientId = patientId;
+        this.startsAt = startsAt;
+        this.finishesAt = finishesAt;
+    }
+
+    public static BookedSlot of(Appointment appointment){
+        return new BookedSlot(
+                appointment.getRoom() == null ? null : appointment.getRoom().getRoomName(),
+                appointment.getDoctor() == null ? null : appointment.getDoctor().getId(),
+                appointment.getPatient() == null ? null : appointment.getPatient().getId(),
+                appointment.getStartsAt(),
+                appointment.getFinishesAt());
+    }
+
+    public String getRoomName(){
+        return this.roomName;
+    }
+
+    public Long getDoctorId(){
+        return this.doctorId;
+    }
+
+    public Long getPatientId(){
+        return this.patientId;
+    }
+
+    public LocalDateTime getStartsAt(){
+        return this.startsAt;
+    }
+
+    public LocalDateTime getFinishesAt(){
+        return this.finishesAt;
+    }
+
+    // Everything that cannot be in two places at once. Doctors and patients that are not
+    // stored yet (id 0) are always distinct people, so they never clash with anyone.
+    public List<String> resourceKeys(){
+        List<String> keys = new ArrayList<>(3);
+        if (roomName != null) {
+            keys.add("room:" + roomName);
+        }
+        if (doctorId != null && doctorId != 0) {
+            keys.add("doctor:" + doctorId);
+        }
+        if (patientId != null && patientId != 0) {
+            keys.add("patient:" + patientId);
+        }
+        return keys;
+    }
+
+}
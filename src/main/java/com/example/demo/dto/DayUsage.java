@@ -0,0 +1,27 @@
+package com.example.demo.dto;
+
+import java.time.LocalDate;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+public class DayUsage {
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "dd/MM/yyyy")
+    private final LocalDate date;
+
+    private final long bookedMinutes;
+
+    public DayUsage(LocalDate date, long bookedMinutes){
+        this.date = date;
+        this.bookedMinutes = bookedMinutes;
+    }
+
+    public LocalDate getDate(){
+        return this.date;
+    }
+
+    public long getBookedMinutes(){
+        return this.bookedMinutes;
+    }
+
+}
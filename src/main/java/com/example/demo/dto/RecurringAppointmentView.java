@@ -0,0 +1,107 @@
+package com.example.demo.dto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+// Read-only copy of a recurring appointment with the same JSON shape as the entity, which also
+// lays out its occurrences as appointment views for the schedules and histories they show up in
+public class RecurringAppointmentView {
+
+    private final long id;
+    private final PersonView patient;
+    private final PersonView doctor;
+    private final RoomView room;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private final LocalDateTime startsAt;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private final LocalDateTime finishesAt;
+
+    private final int repeatEveryDays;
+    private final int occurrences;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private final LocalDateTime lastFinishesAt;
+
+    // Flat form used by JPQL constructor expressions
+    public RecurringAppointmentView(long id,
+                                    long patientId, String patientFirstName, String patientLastName, int patientAge, String patientEmail,
+                                    long doctorId, String doctorFirstName, String doctorLastName, int doctorAge, String doctorEmail,
+                                    String roomName, LocalDateTime startsAt, LocalDateTime finishesAt,
+                                    int repeatEveryDays, int occurrences, LocalDateTime lastFinishesAt){
+        this.id = id;
+        this.patient = new PersonView(patientId, patientFirstName, patientLastName, patientAge, patientEmail);
+        this.doctor = new PersonView(doctorId, doctorFirstName, doctorLastName, doctorAge, doctorEmail);
+        this.room = new RoomView(roomName);
+        this.startsAt = startsAt;
+        this.finishesAt = finishesAt;
+        this.repeatEveryDays = repeatEveryDays;
+        this.occurrences = occurrences;
+        this.lastFinishesAt = lastFinishesAt;
+    }
+
+    public BookedSeries series(){
+        return new BookedSeries(room.getRoomName(), doctor.getId(), patient.getId(), startsAt, finishesAt, repeatEveryDays, occurrences);
+    }
+
+    // Occurrences starting within [from, to), the way a schedule lists appointments
+    public List<AppointmentView> occurrencesStartingBetween(LocalDateTime from, LocalDateTime to){
+        List<AppointmentView> views = new ArrayList<>();
+        for (TimeSlot slot : series().occurrencesBetween(from, to)) {
+            if (!slot.getStartsAt().isBefore(from)) {
+                views.add(AppointmentView.occurrence(id, patient, doctor, room, slot));
+            }
+        }
+        return views;
+    }
+
+    // Newest first, as a history lists appointments; see BookedSeries.latestOccurrencesBefore
+    public List<AppointmentView> latestOccurrencesBefore(LocalDateTime time, boolean inclusive, int limit){
+        List<AppointmentView> views = new ArrayList<>();
+        for (TimeSlot slot : series().latestOccurrencesBefore(time, inclusive, limit)) {
+            views.add(AppointmentView.occurrence(id, patient, doctor, room, slot));
+        }
+        return views;
+    }
+
+    public long getId(){
+        return this.id;
+    }
+
+    public PersonView getPatient(){
+        return this.patient;
+    }
+
+    public PersonView getDoctor(){
+        return this.doctor;
+    }
+
+    public RoomView getRoom(){
+        return this.room;
+    }
+
+    public LocalDateTime getStartsAt(){
+        return this.startsAt;
+    }
+
+    public LocalDateTime getFinishesAt(){
+        return this.finishesAt;
+    }
+
+    public int getRepeatEveryDays(){
+        return this.repeatEveryDays;
+    }
+
+    public int getOccurrences(){
+        return this.occurrences;
+    }
+
+    public LocalDateTime getLastFinishesAt(){
+        return this.lastFinishesAt;
+    }
+
+}
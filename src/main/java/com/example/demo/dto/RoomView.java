@@ -0,0 +1,21 @@
+package com.example.demo.dto;
+
+import com.example.demo.entities.Room;
+
+public class RoomView {
+
+    private final String roomName;
+
+    public RoomView(String roomName){
+        this.roomName = roomName;
+    }
+
+    public static RoomView of(Room room){
+        return room == null ? null : new RoomView(room.getRoomName());
+    }
+
+    public String getRoomName(){
+        return this.roomName;
+    }
+
+}
@@ -1,30 +1,40 @@
 package com.example.demo.entities;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.*;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import com.fasterxml.jackson.annotation.JsonFormat;
 
 @Entity
 public class Appointment {
 
+    // Longest appointment that can be booked, also enforced by the schema (V7). Overlap checks
+    // only look this far back for an appointment that may still be running.
+    public static final Duration MAX_DURATION = Duration.ofHours(24);
+
     @Id
-    @GeneratedValue(strategy=GenerationType.AUTO)
+    @GeneratedValue(generator="appointment_ids")
+    @GenericGenerator(name="appointment_ids", strategy="com.example.demo.entities.ConfiguredSequenceGenerator", parameters={
+            @Parameter(name="sequence_name", value="appointment_sequence"), @Parameter(name="increment_size", value="100")})
     private long id;
 
 
-    @ManyToOne(cascade = CascadeType.ALL)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "patient_id", referencedColumnName = "id")
     private Patient patient;
 
-    @ManyToOne(cascade = CascadeType.ALL)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "doctor_id", referencedColumnName = "id")
     private Doctor doctor;
 
-    @ManyToOne(cascade = CascadeType.ALL)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "room_id", referencedColumnName = "roomName")
     private Room room;
 
@@ -95,7 +105,7 @@ public class Appointment {
         // Case 2: A.finishes == B.finishes 
         // Case 3: A.starts < B.finishes && B.finishes < A.finishes
         // Case 4: B.starts < A.starts && A.finishes < B.finishes
-        if (appointment.getRoom().getRoomName().equals(this.getRoom().getRoomName())){ 
+        if (this.sharesResourceWith(appointment)){ 
             if (this.getStartsAt().equals(appointment.getStartsAt()) || 
                     appointment.getFinishesAt().equals(this.getFinishesAt())){
                 return true;
@@ -111,4 +121,19 @@ public class Appointment {
         return false;
     }
 
+    private boolean sharesResourceWith(Appointment appointment){
+        // Same room, same doctor or same patient: none of them can be in two appointments at once
+        if (appointment.getRoom().getRoomName().equals(this.getRoom().getRoomName())){
+            return true;
+        }
+        if (this.getDoctor() != null && appointment.getDoctor() != null &&
+                (this.getDoctor() == appointment.getDoctor() ||
+                 (this.getDoctor().getId() != 0 && this.getDoctor().getId() == appointment.getDoctor().getId()))){
+            return true;
+        }
+        return this.getPatient() != null && appointment.getPatient() != null &&
+                (this.getPatient() == appointment.getPatient() ||
+                 (this.getPatient().getId() != 0 && this.getPatient().getId() == appointment.getPatient().getId()));
+    }
+
 }
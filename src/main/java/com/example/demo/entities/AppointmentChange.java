@@ -0,0 +1,122 @@
+package com.example.demo.entities;
+
+import java.time.LocalDateTime;
+import javax.persistence.*;
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+// Outbox row written in the same transaction as the appointment or recurring series it describes.
+// Ids grow with every insert, so they double as the event ids clients resume from.
+@Entity
+public class AppointmentChange {
+
+    public enum Type { CREATED, DELETED, CLEARED, SERIES_CREATED, SERIES_DELETED }
+
+    @Id
+    @GeneratedValue(strategy=GenerationType.IDENTITY)
+    private long id;
+
+    @Enumerated(EnumType.STRING)
+    private Type type;
+
+    private Long appointmentId;
+
+    private String roomName;
+
+    private Long doctorId;
+
+    private Long patientId;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private LocalDateTime startsAt;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private LocalDateTime finishesAt;
+
+    // Set for series changes only, with startsAt and finishesAt being the first occurrence
+    private Long recurringAppointmentId;
+
+    private Integer repeatEveryDays;
+
+    private Integer occurrences;
+
+    private LocalDateTime occurredAt;
+
+    public AppointmentChange(){
+        super();
+    }
+
+    public AppointmentChange(Type type, Appointment appointment, LocalDateTime occurredAt){
+        this.type = type;
+        this.occurredAt = occurredAt;
+        if (appointment != null) {
+            this.appointmentId = appointment.getId();
+            this.roomName = appointment.getRoom() == null ? null : appointment.getRoom().getRoomName();
+            this.doctorId = appointment.getDoctor() == null ? null : appointment.getDoctor().getId();
+            this.patientId = appointment.getPatient() == null ? null : appointment.getPatient().getId();
+            this.startsAt = appointment.getStartsAt();
+            this.finishesAt = appointment.getFinishesAt();
+        }
+    }
+
+    public AppointmentChange(Type type, RecurringAppointment series, LocalDateTime occurredAt){
+        this.type = type;
+        this.occurredAt = occurredAt;
+        this.recurringAppointmentId = series.getId();
+        this.roomName = series.getRoom().getRoomName();
+        this.doctorId = series.getDoctor().getId();
+        this.patientId = series.getPatient().getId();
+        this.startsAt = series.getStartsAt();
+        this.finishesAt = series.getFinishesAt();
+        this.repeatEveryDays = series.getRepeatEveryDays();
+        this.occurrences = series.getOccurrences();
+    }
+
+    public long getId(){
+        return this.id;
+    }
+
+    public Type getType(){
+        return this.type;
+    }
+
+    public Long getAppointmentId(){
+        return this.appointmentId;
+    }
+
+    public String getRoomName(){
+        return this.roomName;
+    }
+
+    public Long getDoctorId(){
+        return this.doctorId;
+    }
+
+    public Long getPatientId(){
+        return this.patientId;
+    }
+
+    public LocalDateTime getStartsAt(){
+        return this.startsAt;
+    }
+
+    public LocalDateTime getFinishesAt(){
+        return this.finishesAt;
+    }
+
+    public Long getRecurringAppointmentId(){
+        return this.recurringAppointmentId;
+    }
+
+    public Integer getRepeatEveryDays(){
+        return this.repeatEveryDays;
+    }
+
+    public Integer getOccurrences(){
+        return this.occurrences;
+    }
+
+    public LocalDateTime getOccurredAt(){
+        return this.occurredAt;
+    }
+
+}
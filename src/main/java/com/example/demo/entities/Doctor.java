@@ -2,12 +2,17 @@ package com.example.demo.entities;
 
 import javax.persistence.*;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 @Entity
 @Table(name="doctors")
 public class Doctor extends Person {
 
     @Id
-    @GeneratedValue(strategy=GenerationType.AUTO)
+    @GeneratedValue(generator="doctor_ids")
+    @GenericGenerator(name="doctor_ids", strategy="com.example.demo.entities.ConfiguredSequenceGenerator", parameters={
+            @Parameter(name="sequence_name", value="doctor_sequence"), @Parameter(name="increment_size", value="50")})
     private long id;
  
     public Doctor() {
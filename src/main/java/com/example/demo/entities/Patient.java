@@ -3,13 +3,17 @@ package com.example.demo.entities;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 @Entity
 public class Patient extends Person{
 
     @Id
-    @GeneratedValue(strategy=GenerationType.AUTO)
+    @GeneratedValue(generator="patient_ids")
+    @GenericGenerator(name="patient_ids", strategy="com.example.demo.entities.ConfiguredSequenceGenerator", parameters={
+            @Parameter(name="sequence_name", value="patient_sequence"), @Parameter(name="increment_size", value="50")})
     private long id;
 
     public Patient(){
@@ -0,0 +1,130 @@
+package com.example.demo.entities;
+
+import java.time.LocalDateTime;
+import javax.persistence.*;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+// A weekly physiotherapy slot and the like, stored as one row for the whole series. startsAt and
+// finishesAt are the first occurrence; occurrence k is the same slot k * repeatEveryDays days later.
+@Entity
+public class RecurringAppointment {
+
+    @Id
+    @GeneratedValue(generator="recurring_appointment_ids")
+    @GenericGenerator(name="recurring_appointment_ids", strategy="com.example.demo.entities.ConfiguredSequenceGenerator", parameters={
+            @Parameter(name="sequence_name", value="recurring_appointment_sequence"), @Parameter(name="increment_size", value="50")})
+    private long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "patient_id", referencedColumnName = "id")
+    private Patient patient;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "doctor_id", referencedColumnName = "id")
+    private Doctor doctor;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "room_id", referencedColumnName = "roomName")
+    private Room room;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private LocalDateTime startsAt;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private LocalDateTime finishesAt;
+
+    private int repeatEveryDays;
+
+    private int occurrences;
+
+    // Finish of the last occurrence, kept so series can be looked up by the time range they span
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm dd/MM/yyyy")
+    private LocalDateTime lastFinishesAt;
+
+    public RecurringAppointment(){
+        super();
+    }
+
+    public RecurringAppointment(Patient patient, Doctor doctor, Room room, LocalDateTime startsAt, LocalDateTime finishesAt,
+                                int repeatEveryDays, int occurrences){
+        this.patient = patient;
+        this.doctor = doctor;
+        this.room = room;
+        this.startsAt = startsAt;
+        this.finishesAt = finishesAt;
+        this.repeatEveryDays = repeatEveryDays;
+        this.occurrences = occurrences;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void computeLastFinishesAt(){
+        this.lastFinishesAt = finishesAt.plusDays((long) repeatEveryDays * (occurrences - 1));
+    }
+
+    public long getId(){
+        return this.id;
+    }
+
+    public void setId(long id){
+        this.id = id;
+    }
+
+    public Patient getPatient(){
+        return this.patient;
+    }
+    public void setPatient(Patient patient){
+        this.patient = patient;
+    }
+
+    public Doctor getDoctor(){
+        return this.doctor;
+    }
+    public void setDoctor(Doctor doctor){
+        this.doctor = doctor;
+    }
+
+    public Room getRoom(){
+        return this.room;
+    }
+    public void setRoom(Room room){
+        this.room = room;
+    }
+
+    public LocalDateTime getStartsAt(){
+        return this.startsAt;
+    }
+    public void setStartsAt(LocalDateTime startsAt){
+        this.startsAt = startsAt;
+    }
+
+    public LocalDateTime getFinishesAt(){
+        return this.finishesAt;
+    }
+    public void setFinishesAt(LocalDateTime finishesAt){
+        this.finishesAt = finishesAt;
+    }
+
+    public int getRepeatEveryDays(){
+        return this.repeatEveryDays;
+    }
+    public void setRepeatEveryDays(int repeatEveryDays){
+        this.repeatEveryDays = repeatEveryDays;
+    }
+
+    public int getOccurrences(){
+        return this.occurrences;
+    }
+    public void setOccurrences(int occurrences){
+        this.occurrences = occurrences;
+    }
+
+    public LocalDateTime getLastFinishesAt(){
+        return this.lastFinishesAt;
+    }
+
+}
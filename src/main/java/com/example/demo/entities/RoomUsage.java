@@ -0,0 +1,44 @@
+package com.example.demo.entities;
+
+import java.time.LocalDate;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+
+// Minutes booked in a room on one day, kept up to date as appointments are booked and deleted.
+// An appointment counts on the day it starts.
+@Entity
+@IdClass(RoomUsageId.class)
+public class RoomUsage {
+
+    @Id
+    private String roomName;
+
+    @Id
+    private LocalDate usageDate;
+
+    private long bookedMinutes;
+
+    public RoomUsage(){
+        super();
+    }
+
+    public RoomUsage(String roomName, LocalDate usageDate, long bookedMinutes){
+        this.roomName = roomName;
+        this.usageDate = usageDate;
+        this.bookedMinutes = bookedMinutes;
+    }
+
+    public String getRoomName(){
+        return this.roomName;
+    }
+
+    public LocalDate getUsageDate(){
+        return this.usageDate;
+    }
+
+    public long getBookedMinutes(){
+        return this.bookedMinutes;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.example.demo.entities;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+public class RoomUsageId implements Serializable {
+
+    private String roomName;
+    private LocalDate usageDate;
+
+    public RoomUsageId(){
+        super();
+    }
+
+    public RoomUsageId(String roomName, LocalDate usageDate){
+        this.roomName = roomName;
+        this.usageDate = usageDate;
+    }
+
+    public String getRoomName(){
+        return this.roomName;
+    }
+
+    public LocalDate getUsageDate(){
+        return this.usageDate;
+    }
+
+    @Override
+    public boolean equals(Object other){
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof RoomUsageId)) {
+            return false;
+        }
+        RoomUsageId that = (RoomUsageId) other;
+        return Objects.equals(roomName, that.roomName) && Objects.equals(usageDate, that.usageDate);
+    }
+
+    @Override
+    public int hashCode(){
+        return Objects.hash(roomName, usageDate);
+    }
+
+}
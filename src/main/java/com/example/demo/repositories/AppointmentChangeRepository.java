@@ -0,0 +1,37 @@
+package com.example.demo.repositories;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.example.demo.entities.AppointmentChange;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface AppointmentChangeRepository extends JpaRepository<AppointmentChange, Long> {
+
+    @Transactional(readOnly = true)
+    @Query("select c from AppointmentChange c where c.id > :id order by c.id")
+    List<AppointmentChange> findAfter(@Param("id") long id, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select c from AppointmentChange c where c.id > :since and c.id <= :upTo order by c.id")
+    List<AppointmentChange> findBetween(@Param("since") long since, @Param("upTo") long upTo, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query("select min(c.id) from AppointmentChange c")
+    Long findFirstId();
+
+    @Transactional(readOnly = true)
+    @Query("select coalesce(max(c.id), 0) from AppointmentChange c")
+    long findLastId();
+
+    @Transactional
+    @Modifying
+    @Query("delete from AppointmentChange c where c.occurredAt < :before")
+    int deleteOlderThan(@Param("before") LocalDateTime before);
+}
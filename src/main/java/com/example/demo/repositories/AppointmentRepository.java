@@ -1,14 +1,173 @@
 
 package com.example.demo.repositories;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import javax.persistence.QueryHint;
+
+import com.example.demo.dto.AppointmentView;
+import com.example.demo.dto.BookedSlot;
+import com.example.demo.dto.TimeSlot;
 import com.example.demo.entities.Appointment;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface AppointmentRepository extends JpaRepository<Appointment, Long> {
+    // Patient, doctor and room are read in the same select instead of one select per association
+    @EntityGraph(attributePaths = {"patient", "doctor", "room"})
     List<Appointment> findAll();
+    @EntityGraph(attributePaths = {"patient", "doctor", "room"})
+    Optional<Appointment> findById(Long id);
+    @EntityGraph(attributePaths = {"patient", "doctor", "room"})
+    List<Appointment> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
     Appointment save(Appointment appointment);
     void delete(Appointment appointment);
+
+    String VIEW = "select new com.example.demo.dto.AppointmentView(a.id,"
+            + " p.id, p.firstName, p.lastName, p.age, p.email,"
+            + " d.id, d.firstName, d.lastName, d.age, d.email,"
+            + " r.roomName, a.startsAt, a.finishesAt)"
+            + " from Appointment a left join a.patient p left join a.doctor d left join a.room r";
+
+    @Transactional(readOnly = true)
+    @Query(VIEW)
+    List<AppointmentView> findAllViews();
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where a.id = :id")
+    Optional<AppointmentView> findViewById(@Param("id") long id);
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where a.id > :id order by a.id")
+    List<AppointmentView> findViewsByIdGreaterThan(@Param("id") long id, Pageable pageable);
+
+    // Seeks the (doctor_id, starts_at) index: appointments starting within [from, to), in start order
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where a.doctor.id = :doctorId and a.startsAt >= :from and a.startsAt < :to order by a.startsAt, a.id")
+    List<AppointmentView> findDoctorScheduleViews(@Param("doctorId") long doctorId,
+                                                  @Param("from") LocalDateTime from,
+                                                  @Param("to") LocalDateTime to);
+
+    // Newest first. Both pages seek the (patient_id, starts_at) index, whose entries also carry
+    // the id, so a deep page costs the same as the first one
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where a.patient.id = :patientId order by a.startsAt desc, a.id desc")
+    List<AppointmentView> findPatientHistoryViews(@Param("patientId") long patientId, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where a.patient.id = :patientId"
+            + " and (a.startsAt < :startsAt or (a.startsAt = :startsAt and a.id < :id))"
+            + " order by a.startsAt desc, a.id desc")
+    List<AppointmentView> findPatientHistoryViewsBefore(@Param("patientId") long patientId,
+                                                        @Param("startsAt") LocalDateTime startsAt,
+                                                        @Param("id") long id,
+                                                        Pageable pageable);
+
+    // No appointment runs longer than Appointment.MAX_DURATION, so one that overlaps
+    // [startsAt, finishesAt) started after startsAt - MAX_DURATION. Each EXISTS probe is a range
+    // on its own resource's (resource, starts_at) index that is never longer than MAX_DURATION plus
+    // the new slot, however long the history before it is. Every row in the range is checked, so
+    // appointments of one resource that overlap each other, booked before conflicts were checked
+    // properly, are still seen.
+    String CONFLICT_PROBE = "select case"
+            + " when exists (select 1 from appointment a where a.room_id = :roomName"
+            + " and a.starts_at > :earliestStart and a.starts_at < :finishesAt and a.finishes_at > :startsAt)"
+            + " or exists (select 1 from appointment a where a.doctor_id = :doctorId"
+            + " and a.starts_at > :earliestStart and a.starts_at < :finishesAt and a.finishes_at > :startsAt)"
+            + " or exists (select 1 from appointment a where a.patient_id = :patientId"
+            + " and a.starts_at > :earliestStart and a.starts_at < :finishesAt and a.finishes_at > :startsAt)"
+            + " then 1 else 0 end";
+
+    @Query(nativeQuery = true, value = CONFLICT_PROBE)
+    int probeConflicts(@Param("roomName") String roomName,
+                       @Param("doctorId") Long doctorId,
+                       @Param("patientId") Long patientId,
+                       @Param("earliestStart") LocalDateTime earliestStart,
+                       @Param("startsAt") LocalDateTime startsAt,
+                       @Param("finishesAt") LocalDateTime finishesAt);
+
+    default boolean existsConflicting(String roomName, Long doctorId, Long patientId,
+                                      LocalDateTime startsAt, LocalDateTime finishesAt){
+        return probeConflicts(roomName, doctorId, patientId, startsAt.minus(Appointment.MAX_DURATION), startsAt, finishesAt) > 0;
+    }
+
+    // One bounded range read per kind of resource, each on its own index. An appointment sharing
+    // more than one resource with the batch comes back more than once, which the sweep does not mind.
+    default List<BookedSlot> findBookedSlots(Collection<String> roomNames, Collection<Long> doctorIds,
+                                             Collection<Long> patientIds, LocalDateTime startsAt, LocalDateTime finishesAt){
+        LocalDateTime earliestStart = startsAt.minus(Appointment.MAX_DURATION);
+        List<BookedSlot> slots = new ArrayList<>();
+        if (!roomNames.isEmpty()) {
+            slots.addAll(findRoomsBookedSlots(roomNames, earliestStart, startsAt, finishesAt));
+        }
+        if (!doctorIds.isEmpty()) {
+            slots.addAll(findDoctorsBookedSlots(doctorIds, earliestStart, startsAt, finishesAt));
+        }
+        if (!patientIds.isEmpty()) {
+            slots.addAll(findPatientsBookedSlots(patientIds, earliestStart, startsAt, finishesAt));
+        }
+        return slots;
+    }
+
+    String BOOKED_SLOT = "select new com.example.demo.dto.BookedSlot(a.room.roomName, a.doctor.id, a.patient.id, a.startsAt, a.finishesAt)"
+            + " from Appointment a";
+
+    String OVERLAPPING = " and a.startsAt > :earliestStart and a.startsAt < :finishesAt and a.finishesAt > :startsAt";
+
+    @Query(BOOKED_SLOT + " where a.room.roomName in :roomNames" + OVERLAPPING)
+    List<BookedSlot> findRoomsBookedSlots(@Param("roomNames") Collection<String> roomNames,
+                                          @Param("earliestStart") LocalDateTime earliestStart,
+                                          @Param("startsAt") LocalDateTime startsAt,
+                                          @Param("finishesAt") LocalDateTime finishesAt);
+
+    @Query(BOOKED_SLOT + " where a.doctor.id in :doctorIds" + OVERLAPPING)
+    List<BookedSlot> findDoctorsBookedSlots(@Param("doctorIds") Collection<Long> doctorIds,
+                                            @Param("earliestStart") LocalDateTime earliestStart,
+                                            @Param("startsAt") LocalDateTime startsAt,
+                                            @Param("finishesAt") LocalDateTime finishesAt);
+
+    @Query(BOOKED_SLOT + " where a.patient.id in :patientIds" + OVERLAPPING)
+    List<BookedSlot> findPatientsBookedSlots(@Param("patientIds") Collection<Long> patientIds,
+                                             @Param("earliestStart") LocalDateTime earliestStart,
+                                             @Param("startsAt") LocalDateTime startsAt,
+                                             @Param("finishesAt") LocalDateTime finishesAt);
+
+    default List<TimeSlot> findRoomBusySlots(String roomName, LocalDateTime from, LocalDateTime to){
+        return findRoomSlotsOverlapping(roomName, from.minus(Appointment.MAX_DURATION), from, to);
+    }
+
+    @Query("select new com.example.demo.dto.TimeSlot(a.startsAt, a.finishesAt) from Appointment a"
+            + " where a.room.roomName = :roomName and a.startsAt > :earliestStart and a.startsAt < :finishesAt"
+            + " and a.finishesAt > :startsAt order by a.startsAt")
+    List<TimeSlot> findRoomSlotsOverlapping(@Param("roomName") String roomName,
+                                            @Param("earliestStart") LocalDateTime earliestStart,
+                                            @Param("startsAt") LocalDateTime from,
+                                            @Param("finishesAt") LocalDateTime to);
+
+    default List<TimeSlot> findDoctorBusySlots(long doctorId, LocalDateTime from, LocalDateTime to){
+        return findDoctorSlotsOverlapping(doctorId, from.minus(Appointment.MAX_DURATION), from, to);
+    }
+
+    @Query("select new com.example.demo.dto.TimeSlot(a.startsAt, a.finishesAt) from Appointment a"
+            + " where a.doctor.id = :doctorId and a.startsAt > :earliestStart and a.startsAt < :finishesAt"
+            + " and a.finishesAt > :startsAt order by a.startsAt")
+    List<TimeSlot> findDoctorSlotsOverlapping(@Param("doctorId") long doctorId,
+                                              @Param("earliestStart") LocalDateTime earliestStart,
+                                              @Param("startsAt") LocalDateTime from,
+                                              @Param("finishesAt") LocalDateTime to);
+
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select a from Appointment a left join fetch a.patient left join fetch a.doctor left join fetch a.room order by a.id")
+    Stream<Appointment> streamAll();
 }
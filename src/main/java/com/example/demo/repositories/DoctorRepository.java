@@ -1,13 +1,52 @@
 package com.example.demo.repositories;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
+import com.example.demo.dto.PersonView;
 import com.example.demo.entities.Doctor;
 
+import javax.persistence.LockModeType;
+
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface DoctorRepository extends JpaRepository<Doctor, Long> {
     List<Doctor> findAll();
+    List<Doctor> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+    @CacheEvict(cacheNames = "doctors", key = "#p0.id")
     Doctor save(Doctor doc);
+    @CacheEvict(cacheNames = "doctors", key = "#p0.id")
     void delete(Doctor doc);
+    @CacheEvict(cacheNames = "doctors", key = "#p0")
+    void deleteById(Long id);
+    @CacheEvict(cacheNames = "doctors", allEntries = true)
+    void deleteAll();
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.PersonView(d.id, d.firstName, d.lastName, d.age, d.email) from Doctor d")
+    List<PersonView> findAllViews();
+
+    // Concurrent misses share one query, and misses are not cached, so a person created after
+    // a 404 is found on the next lookup (see CacheConfiguration)
+    @Cacheable(cacheNames = "doctors", key = "#p0", sync = true)
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.PersonView(d.id, d.firstName, d.lastName, d.age, d.email) from Doctor d where d.id = :id")
+    Optional<PersonView> findViewById(@Param("id") long id);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.PersonView(d.id, d.firstName, d.lastName, d.age, d.email) from Doctor d where d.id > :id order by d.id")
+    List<PersonView> findViewsByIdGreaterThan(@Param("id") long id, Pageable pageable);
+
+    // Bookings lock the people they book like the room, in id order so that they cannot deadlock
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select d from Doctor d where d.id in :ids order by d.id")
+    List<Doctor> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
 }
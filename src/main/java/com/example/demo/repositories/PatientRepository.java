@@ -1,14 +1,53 @@
 
 package com.example.demo.repositories;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
+import com.example.demo.dto.PersonView;
 import com.example.demo.entities.Patient;
 
+import javax.persistence.LockModeType;
+
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface PatientRepository extends JpaRepository<Patient, Long> {
     List<Patient> findAll();
+    List<Patient> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+    @CacheEvict(cacheNames = "patients", key = "#p0.id")
     Patient save(Patient doc);
+    @CacheEvict(cacheNames = "patients", key = "#p0.id")
     void delete(Patient doc);
+    @CacheEvict(cacheNames = "patients", key = "#p0")
+    void deleteById(Long id);
+    @CacheEvict(cacheNames = "patients", allEntries = true)
+    void deleteAll();
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.PersonView(p.id, p.firstName, p.lastName, p.age, p.email) from Patient p")
+    List<PersonView> findAllViews();
+
+    // Concurrent misses share one query, and misses are not cached, so a person created after
+    // a 404 is found on the next lookup (see CacheConfiguration)
+    @Cacheable(cacheNames = "patients", key = "#p0", sync = true)
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.PersonView(p.id, p.firstName, p.lastName, p.age, p.email) from Patient p where p.id = :id")
+    Optional<PersonView> findViewById(@Param("id") long id);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.PersonView(p.id, p.firstName, p.lastName, p.age, p.email) from Patient p where p.id > :id order by p.id")
+    List<PersonView> findViewsByIdGreaterThan(@Param("id") long id, Pageable pageable);
+
+    // Bookings lock the people they book like the room, in id order so that they cannot deadlock
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from Patient p where p.id in :ids order by p.id")
+    List<Patient> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
 }
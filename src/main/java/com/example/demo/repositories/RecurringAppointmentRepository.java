@@ -0,0 +1,80 @@
+package com.example.demo.repositories;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.RecurringAppointmentView;
+import com.example.demo.entities.RecurringAppointment;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface RecurringAppointmentRepository extends JpaRepository<RecurringAppointment, Long> {
+
+    String SERIES = "select new com.example.demo.dto.BookedSeries(s.room.roomName, s.doctor.id, s.patient.id,"
+            + " s.startsAt, s.finishesAt, s.repeatEveryDays, s.occurrences) from RecurringAppointment s";
+
+    @Transactional(readOnly = true)
+    @Query(SERIES + " where s.id = :id")
+    Optional<BookedSeries> findSeriesById(@Param("id") long id);
+
+    // Series whose span, from the first start to the last finish, overlaps [startsAt, finishesAt)
+    // on one of the resources. Whether an actual occurrence overlaps is then worked out in memory.
+    @Query(SERIES + " where s.startsAt < :finishesAt and s.lastFinishesAt > :startsAt"
+            + " and (s.room.roomName in :roomNames or s.doctor.id in :doctorIds or s.patient.id in :patientIds)")
+    List<BookedSeries> findBookedSeries(@Param("roomNames") Collection<String> roomNames,
+                                        @Param("doctorIds") Collection<Long> doctorIds,
+                                        @Param("patientIds") Collection<Long> patientIds,
+                                        @Param("startsAt") LocalDateTime startsAt,
+                                        @Param("finishesAt") LocalDateTime finishesAt);
+
+    @Query(SERIES + " where s.room.roomName = :roomName and s.startsAt < :to and s.lastFinishesAt > :from")
+    List<BookedSeries> findRoomSeries(@Param("roomName") String roomName,
+                                      @Param("from") LocalDateTime from,
+                                      @Param("to") LocalDateTime to);
+
+    @Query(SERIES + " where s.doctor.id = :doctorId and s.startsAt < :to and s.lastFinishesAt > :from")
+    List<BookedSeries> findDoctorSeries(@Param("doctorId") long doctorId,
+                                        @Param("from") LocalDateTime from,
+                                        @Param("to") LocalDateTime to);
+
+    String VIEW = "select new com.example.demo.dto.RecurringAppointmentView(s.id,"
+            + " p.id, p.firstName, p.lastName, p.age, p.email,"
+            + " d.id, d.firstName, d.lastName, d.age, d.email,"
+            + " r.roomName, s.startsAt, s.finishesAt, s.repeatEveryDays, s.occurrences, s.lastFinishesAt)"
+            + " from RecurringAppointment s join s.patient p join s.doctor d join s.room r";
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " order by s.id")
+    List<RecurringAppointmentView> findAllViews();
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where s.id = :id")
+    Optional<RecurringAppointmentView> findViewById(@Param("id") long id);
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where s.id > :id order by s.id")
+    List<RecurringAppointmentView> findViewsByIdGreaterThan(@Param("id") long id, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where s.doctor.id = :doctorId and s.startsAt < :to and s.lastFinishesAt > :from")
+    List<RecurringAppointmentView> findDoctorSeriesViews(@Param("doctorId") long doctorId,
+                                                         @Param("from") LocalDateTime from,
+                                                         @Param("to") LocalDateTime to);
+
+    // A patient has a handful of series at most, so a history page reads all that started by then
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where s.patient.id = :patientId and s.startsAt <= :startsAt")
+    List<RecurringAppointmentView> findPatientSeriesViewsStartedBy(@Param("patientId") long patientId,
+                                                                   @Param("startsAt") LocalDateTime startsAt);
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " where s.patient.id = :patientId")
+    List<RecurringAppointmentView> findPatientSeriesViews(@Param("patientId") long patientId);
+}
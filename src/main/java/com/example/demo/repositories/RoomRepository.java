@@ -1,17 +1,56 @@
 
 package com.example.demo.repositories;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import com.example.demo.dto.RoomView;
 import com.example.demo.entities.Room;
 
+import javax.persistence.LockModeType;
+
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface RoomRepository extends JpaRepository<Room, Long> {
     List<Room> findAll();
+    List<Room> findByRoomNameGreaterThanOrderByRoomNameAsc(String roomName, Pageable pageable);
     Optional<Room> findByRoomName(String roomName);
+    @CacheEvict(cacheNames = "rooms", key = "#p0.roomName")
     Room save(Room room);
+    @CacheEvict(cacheNames = "rooms", key = "#p0.roomName")
     void delete(Room room);
+    @CacheEvict(cacheNames = "rooms", key = "#p0")
     void deleteByRoomName(String roomName);
+    @CacheEvict(cacheNames = "rooms", allEntries = true)
+    void deleteAll();
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Room r where r.roomName = :roomName")
+    Optional<Room> findByRoomNameForUpdate(@Param("roomName") String roomName);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Room r where r.roomName in :roomNames order by r.roomName")
+    List<Room> findAllByRoomNameForUpdate(@Param("roomNames") Collection<String> roomNames);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.RoomView(r.roomName) from Room r")
+    List<RoomView> findAllViews();
+
+    // Concurrent misses share one query, and misses are not cached (see CacheConfiguration)
+    @Cacheable(cacheNames = "rooms", key = "#p0", sync = true)
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.RoomView(r.roomName) from Room r where r.roomName = :roomName")
+    Optional<RoomView> findViewByRoomName(@Param("roomName") String roomName);
+
+    @Transactional(readOnly = true)
+    @Query("select new com.example.demo.dto.RoomView(r.roomName) from Room r where r.roomName > :roomName order by r.roomName")
+    List<RoomView> findViewsByRoomNameGreaterThan(@Param("roomName") String roomName, Pageable pageable);
 }
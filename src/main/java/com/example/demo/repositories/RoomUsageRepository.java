@@ -0,0 +1,27 @@
+package com.example.demo.repositories;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import com.example.demo.entities.RoomUsage;
+import com.example.demo.entities.RoomUsageId;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface RoomUsageRepository extends JpaRepository<RoomUsage, RoomUsageId> {
+
+    // A single atomic statement, so concurrent bookings and deletes of the same day never lose minutes
+    @Modifying
+    @Query("update RoomUsage u set u.bookedMinutes = u.bookedMinutes + :minutes"
+            + " where u.roomName = :roomName and u.usageDate = :usageDate")
+    int addMinutes(@Param("roomName") String roomName,
+                   @Param("usageDate") LocalDate usageDate,
+                   @Param("minutes") long minutes);
+
+    @Transactional(readOnly = true)
+    List<RoomUsage> findByRoomNameAndUsageDateBetweenOrderByUsageDateAsc(String roomName, LocalDate from, LocalDate to);
+}
@@ -0,0 +1,330 @@
+package com.example.demo.services;
+
+import com.example.demo.entities.AppointmentChange;
+import com.example.demo.repositories.AppointmentChangeRepository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+// Relays the appointment outbox to Server-Sent Events subscribers. One poll of the outbox serves
+// every subscriber, so the database load grows with the number of changes, not of clients.
+// Each subscriber is written to on a thread of its own, so a slow client only holds up itself.
+@Component
+public class AppointmentChangeFeed {
+
+    static final int BATCH_SIZE = 500;
+    static final long SUBSCRIPTION_TIMEOUT_MS = Duration.ofMinutes(30).toMillis();
+    static final long GAP_TIMEOUT_MS = 2000;
+    static final Duration RETENTION = Duration.ofDays(1);
+    static final String RESET_EVENT = "RESET";
+    // Changes a subscriber may fall behind the relay by before it is dropped
+    static final int MAX_PENDING = 5000;
+
+    private final AppointmentChangeRepository appointmentChangeRepository;
+    private final Executor replayExecutor;
+    // Unbounded, since the admission filter already caps how many streams are open at once
+    private final ExecutorService senders = Executors.newCachedThreadPool(new CustomizableThreadFactory("stream-send-"));
+    private final long sendTimeoutMs;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    // Last id relayed. Every change up to it is committed or was rolled back for good.
+    private volatile long cursor;
+    private long gapId = -1;
+    private long gapSince;
+
+    public AppointmentChangeFeed(AppointmentChangeRepository appointmentChangeRepository,
+                                 @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor replayExecutor,
+                                 @Value("${appointments.stream.send-timeout-ms:10000}") long sendTimeoutMs){
+        this.appointmentChangeRepository = appointmentChangeRepository;
+        this.replayExecutor = replayExecutor;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.cursor = appointmentChangeRepository.findLastId();
+    }
+
+    // Changes up to this id can be handed out without skipping one that is still being committed
+    public long settledId(){
+        return cursor;
+    }
+
+    // Without a Last-Event-ID the subscriber only gets what happens from now on. A Last-Event-ID
+    // older than the retained changes gets a RESET event instead, since what it missed is gone.
+    public SseEmitter subscribe(Long lastEventId){
+        long upTo = cursor;
+        if (lastEventId != null && isPurged(lastEventId, upTo)) {
+            return reset(upTo);
+        }
+
+        ReplayingEmitter emitter = new ReplayingEmitter();
+        Subscriber subscriber = new Subscriber(emitter, lastEventId == null ? upTo : lastEventId);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        // Replayed once Spring holds the emitter, so pages are written to the response as they are
+        // read instead of queueing up in the emitter, and on another thread than the relay
+        emitter.whenHandedOver(() -> replayExecutor.execute(subscriber::catchUp));
+        return emitter;
+    }
+
+    private boolean isPurged(long lastEventId, long upTo){
+        Long firstId = appointmentChangeRepository.findFirstId();
+        return lastEventId < (firstId == null ? upTo : firstId - 1);
+    }
+
+    private SseEmitter reset(long upTo){
+        SseEmitter emitter = new SseEmitter(SUBSCRIPTION_TIMEOUT_MS);
+        try {
+            emitter.send(SseEmitter.event().name(RESET_EVENT).data(String.valueOf(upTo)));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${appointments.stream.poll-interval-ms:500}")
+    public synchronized void relay(){
+        List<AppointmentChange> settled = new ArrayList<>();
+        long next = cursor;
+        for (AppointmentChange change : appointmentChangeRepository.findAfter(cursor, PageRequest.of(0, BATCH_SIZE))) {
+            // Ids are taken at insert but become visible at commit, so a missing id may still be
+            // in flight. Later changes wait for it until it is old enough to be a rollback.
+            if (change.getId() != next + 1 && !gapExpired(next + 1)) {
+                break;
+            }
+            settled.add(change);
+            next = change.getId();
+        }
+        if (settled.isEmpty()) {
+            return;
+        }
+        cursor = next;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.enqueue(settled);
+        }
+    }
+
+    @Scheduled(fixedRate = 15000)
+    public void heartbeat(){
+        // Also how subscribers that went away without closing the connection are found
+        for (Subscriber subscriber : subscribers) {
+            subscriber.enqueuePing();
+        }
+    }
+
+    @Scheduled(fixedDelay = 3600000)
+    public void purge(){
+        appointmentChangeRepository.deleteOlderThan(LocalDateTime.now().minus(RETENTION));
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        senders.shutdownNow();
+    }
+
+    private boolean gapExpired(long missingId){
+        long now = System.currentTimeMillis();
+        if (gapId != missingId) {
+            gapId = missingId;
+            gapSince = now;
+        }
+        return now - gapSince >= GAP_TIMEOUT_MS;
+    }
+
+    // Tells when Spring has taken the emitter from the controller: it extends the response just
+    // before binding the emitter to it
+    private static final class ReplayingEmitter extends SseEmitter {
+
+        private Runnable onHandedOver = () -> { };
+
+        ReplayingEmitter(){
+            super(SUBSCRIPTION_TIMEOUT_MS);
+        }
+
+        void whenHandedOver(Runnable callback){
+            this.onHandedOver = callback;
+        }
+
+        @Override
+        protected void extendResponse(ServerHttpResponse outputMessage){
+            super.extendResponse(outputMessage);
+            onHandedOver.run();
+        }
+    }
+
+    private final class Subscriber {
+
+        private final SseEmitter emitter;
+        private long lastSent;
+        // Set once the replay has caught up with the cursor; from then on the relay delivers
+        private boolean live;
+        // Handed over by the relay and the heartbeat, written out by a sender thread
+        private List<AppointmentChange> pending = new ArrayList<>();
+        private boolean pingDue;
+        private boolean sending;
+        private long sendingSince;
+        private boolean dropped;
+
+        Subscriber(SseEmitter emitter, long lastSent){
+            this.emitter = emitter;
+            this.lastSent = lastSent;
+        }
+
+        // Pages through the outbox up to the cursor, then goes live under the lock the relay hands
+        // changes over with if the cursor has not moved on meanwhile
+        void catchUp(){
+            try {
+                while (true) {
+                    long upTo = cursor;
+                    while (lastSent < upTo) {
+                        List<AppointmentChange> page = appointmentChangeRepository.findBetween(lastSent, upTo, PageRequest.of(0, BATCH_SIZE));
+                        // An empty page means the remaining ids were rolled back
+                        if (page.isEmpty()) {
+                            break;
+                        }
+                        if (!send(page)) {
+                            return;
+                        }
+                    }
+                    synchronized (this) {
+                        if (cursor == upTo) {
+                            live = true;
+                            return;
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                drop(e);
+            }
+        }
+
+        synchronized void enqueue(List<AppointmentChange> changes){
+            // Subscribers still replaying pick these up from the outbox themselves
+            if (!live || dropped) {
+                return;
+            }
+            pending.addAll(changes);
+            if (stalled() || pending.size() > MAX_PENDING) {
+                abandon();
+                return;
+            }
+            startSending();
+        }
+
+        synchronized void enqueuePing(){
+            // The replay is writing to a subscriber that is not live yet, which finds it gone as well
+            if (!live || dropped) {
+                return;
+            }
+            pingDue = true;
+            if (stalled()) {
+                abandon();
+                return;
+            }
+            startSending();
+        }
+
+        private boolean stalled(){
+            return sending && System.currentTimeMillis() - sendingSince >= sendTimeoutMs;
+        }
+
+        private void startSending(){
+            if (!sending) {
+                sending = true;
+                sendingSince = System.currentTimeMillis();
+                senders.execute(this::drain);
+            }
+        }
+
+        // Stops delivering to a subscriber stuck in a write. Its emitter cannot be completed while
+        // the write holds it, so the sender thread completes it if the write ever returns.
+        private void abandon(){
+            dropped = true;
+            pending = new ArrayList<>();
+            subscribers.remove(this);
+        }
+
+        private void drain(){
+            while (true) {
+                List<AppointmentChange> changes;
+                boolean ping;
+                synchronized (this) {
+                    if (dropped) {
+                        break;
+                    }
+                    if (pending.isEmpty() && !pingDue) {
+                        sending = false;
+                        return;
+                    }
+                    changes = pending;
+                    pending = new ArrayList<>();
+                    ping = pingDue;
+                    pingDue = false;
+                    sendingSince = System.currentTimeMillis();
+                }
+                if (!send(changes) || ping && !ping()) {
+                    return;
+                }
+            }
+            emitter.completeWithError(new IOException("Subscriber stopped reading"));
+        }
+
+        boolean send(List<AppointmentChange> changes){
+            try {
+                for (AppointmentChange change : changes) {
+                    if (change.getId() <= lastSent) {
+                        continue;
+                    }
+                    emitter.send(SseEmitter.event()
+                            .id(String.valueOf(change.getId()))
+                            .name(change.getType().name())
+                            .data(change, MediaType.APPLICATION_JSON));
+                    lastSent = change.getId();
+                }
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                drop(e);
+                return false;
+            }
+        }
+
+        boolean ping(){
+            try {
+                emitter.send(SseEmitter.event().comment("keep-alive"));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                drop(e);
+                return false;
+            }
+        }
+
+        private void drop(Exception e){
+            synchronized (this) {
+                dropped = true;
+            }
+            subscribers.remove(this);
+            emitter.completeWithError(e);
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.example.demo.services;
+
+import com.example.demo.entities.Appointment;
+import com.example.demo.entities.AppointmentChange;
+import com.example.demo.entities.RecurringAppointment;
+import com.example.demo.repositories.AppointmentChangeRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+// Writes the outbox. Every method joins the caller's transaction, so a change is recorded if and
+// only if the appointment or series write it describes commits.
+@Component
+public class AppointmentChanges {
+
+    private final AppointmentChangeRepository appointmentChangeRepository;
+
+    public AppointmentChanges(AppointmentChangeRepository appointmentChangeRepository){
+        this.appointmentChangeRepository = appointmentChangeRepository;
+    }
+
+    @Transactional
+    public void created(Collection<Appointment> appointments){
+        LocalDateTime now = LocalDateTime.now();
+        List<AppointmentChange> changes = new ArrayList<>();
+        for (Appointment appointment : appointments) {
+            changes.add(new AppointmentChange(AppointmentChange.Type.CREATED, appointment, now));
+        }
+        appointmentChangeRepository.saveAll(changes);
+    }
+
+    @Transactional
+    public void deleted(Appointment appointment){
+        appointmentChangeRepository.save(new AppointmentChange(AppointmentChange.Type.DELETED, appointment, LocalDateTime.now()));
+    }
+
+    // One event for "delete all" rather than one per appointment
+    @Transactional
+    public void cleared(){
+        appointmentChangeRepository.save(new AppointmentChange(AppointmentChange.Type.CLEARED, (Appointment) null, LocalDateTime.now()));
+    }
+
+    // A series is one event however many occurrences it has; clients expand it like the server does
+    @Transactional
+    public void seriesCreated(RecurringAppointment series){
+        appointmentChangeRepository.save(new AppointmentChange(AppointmentChange.Type.SERIES_CREATED, series, LocalDateTime.now()));
+    }
+
+    @Transactional
+    public void seriesDeleted(RecurringAppointment series){
+        appointmentChangeRepository.save(new AppointmentChange(AppointmentChange.Type.SERIES_DELETED, series, LocalDateTime.now()));
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.example.demo.services;
+
+import com.example.demo.repositories.AppointmentRepository;
+import com.example.demo.entities.Appointment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@Component
+public class AppointmentExporter {
+
+    private final AppointmentRepository appointmentRepository;
+    private final ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public AppointmentExporter(AppointmentRepository appointmentRepository, ObjectMapper objectMapper){
+        this.appointmentRepository = appointmentRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    // Writes every appointment as one JSON document per line. Rows are read through a
+    // database cursor and detached once written, so memory does not grow with the table.
+    @Transactional(readOnly = true)
+    public void writeNdjson(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.setRootValueSeparator(new SerializedString("\n"));
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        try (Stream<Appointment> appointments = appointmentRepository.streamAll()) {
+            Iterator<Appointment> iterator = appointments.iterator();
+            while (iterator.hasNext()) {
+                Appointment appointment = iterator.next();
+                objectMapper.writeValue(generator, appointment);
+                detach(appointment);
+            }
+        }
+        generator.writeRaw('\n');
+        generator.close();
+    }
+
+    private void detach(Appointment appointment){
+        entityManager.detach(appointment);
+        if (appointment.getPatient() != null) {
+            entityManager.detach(appointment.getPatient());
+        }
+        if (appointment.getDoctor() != null) {
+            entityManager.detach(appointment.getDoctor());
+        }
+        if (appointment.getRoom() != null) {
+            entityManager.detach(appointment.getRoom());
+        }
+    }
+
+}
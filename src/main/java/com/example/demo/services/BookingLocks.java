@@ -0,0 +1,78 @@
+package com.example.demo.services;
+
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.BookedSlot;
+import com.example.demo.entities.Appointment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@Component
+public class BookingLocks {
+
+    private static final int STRIPES = 64;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final TransactionTemplate transactionTemplate;
+
+    public BookingLocks(PlatformTransactionManager transactionManager){
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public <T> T runLocked(Appointment appointment, Supplier<T> booking){
+        return runLocked(Collections.singletonList(appointment), booking);
+    }
+
+    // Runs the booking in its own transaction while holding the stripes of every room, doctor
+    // and patient involved, so the conflict check and the insert are atomic inside this JVM.
+    // The transaction commits before the stripes are released, so the next booking sees it.
+    public <T> T runLocked(Collection<Appointment> appointments, Supplier<T> booking){
+        List<String> keys = new ArrayList<>();
+        for (Appointment appointment : appointments) {
+            keys.addAll(BookedSlot.of(appointment).resourceKeys());
+        }
+        return runWithStripesOf(keys, booking);
+    }
+
+    // Recurring series take the stripes of their room, doctor and patient like single bookings,
+    // so a series and an appointment on the same resource are never checked at the same time
+    public <T> T runLocked(BookedSeries series, Supplier<T> booking){
+        return runWithStripesOf(series.resourceKeys(), booking);
+    }
+
+    private <T> T runWithStripesOf(List<String> keys, Supplier<T> booking){
+        // Stripes are always taken in ascending order to rule out deadlocks between bookings
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (String key : keys) {
+            stripes.add(Math.floorMod(key.hashCode(), STRIPES));
+        }
+
+        int acquired = 0;
+        Integer[] ordered = stripes.toArray(new Integer[0]);
+        try {
+            for (Integer stripe : ordered) {
+                locks[stripe].lock();
+                acquired++;
+            }
+            return transactionTemplate.execute(status -> booking.get());
+        } finally {
+            for (int i = acquired - 1; i >= 0; i--) {
+                locks[ordered[i]].unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.example.demo.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+@Component
+public class CollectionVersions {
+
+    public static final String APPOINTMENTS = "appointments";
+    public static final String DOCTORS = "doctors";
+    public static final String PATIENTS = "patients";
+    public static final String ROOMS = "rooms";
+
+    // Counters restart at zero, so tags handed out before a restart must not match new ones
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    // Call once the write has committed: a reader that got the old tag with the new rows only
+    // costs one extra full response, while the other way round would serve stale data as fresh.
+    public void bump(String... collections){
+        for (String collection : collections) {
+            versionOf(collection).incrementAndGet();
+        }
+    }
+
+    public String etag(String collection){
+        return "\"" + collection + "-" + epoch + "-" + versionOf(collection).get() + "\"";
+    }
+
+    private AtomicLong versionOf(String collection){
+        return versions.computeIfAbsent(collection, c -> new AtomicLong());
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.example.demo.services;
+
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.BookedSlot;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public final class ConflictSweep {
+
+    private static final Comparator<BookedSlot> BY_START = Comparator.comparing(BookedSlot::getStartsAt);
+
+    private ConflictSweep(){
+    }
+
+    // Positions of the candidates that clash with a stored slot, or with a candidate starting
+    // earlier, on their room, doctor or patient. Both lists are sorted by resource and start
+    // and swept once, so the whole check is O((n + m) log(n + m)).
+    public static Set<Integer> findConflicts(List<BookedSlot> candidates, List<BookedSlot> stored){
+        return findConflicts(candidates, stored, Collections.<BookedSeries>emptyList());
+    }
+
+    // Same, also rejecting candidates that overlap an occurrence of a stored recurring series.
+    // Each series is checked in constant time, without expanding its occurrences.
+    public static Set<Integer> findConflicts(List<BookedSlot> candidates, List<BookedSlot> stored, List<BookedSeries> storedSeries){
+        Set<Integer> conflicts = new TreeSet<>();
+        Map<String, StoredTimeline> timelines = timelinesOf(stored);
+        Map<String, List<BookedSeries>> seriesByKey = new HashMap<>();
+        for (BookedSeries series : storedSeries) {
+            for (String key : series.resourceKeys()) {
+                seriesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(series);
+            }
+        }
+
+        for (int i = 0; i < candidates.size(); i++) {
+            BookedSlot candidate = candidates.get(i);
+            for (String key : candidate.resourceKeys()) {
+                StoredTimeline timeline = timelines.get(key);
+                if ((timeline != null && timeline.overlaps(candidate)) || overlapsAny(seriesByKey.get(key), candidate)) {
+                    conflicts.add(i);
+                    break;
+                }
+            }
+        }
+
+        Integer[] order = new Integer[candidates.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer i) -> candidates.get(i).getStartsAt()).thenComparing(i -> i));
+
+        // Candidates are visited by start time, so a resource is free for the next one as soon
+        // as the latest finish among the candidates already accepted for it has passed.
+        Map<String, LocalDateTime> busyUntil = new HashMap<>();
+        for (Integer i : order) {
+            if (conflicts.contains(i)) {
+                continue;
+            }
+            BookedSlot candidate = candidates.get(i);
+            List<String> keys = candidate.resourceKeys();
+            boolean clashes = false;
+            for (String key : keys) {
+                LocalDateTime until = busyUntil.get(key);
+                if (until != null && until.isAfter(candidate.getStartsAt())) {
+                    clashes = true;
+                    break;
+                }
+            }
+            if (clashes) {
+                conflicts.add(i);
+                continue;
+            }
+            for (String key : keys) {
+                busyUntil.merge(key, candidate.getFinishesAt(), (a, b) -> a.isAfter(b) ? a : b);
+            }
+        }
+        return conflicts;
+    }
+
+    private static boolean overlapsAny(List<BookedSeries> series, BookedSlot candidate){
+        if (series == null) {
+            return false;
+        }
+        for (BookedSeries one : series) {
+            if (one.overlaps(candidate.getStartsAt(), candidate.getFinishesAt())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, StoredTimeline> timelinesOf(List<BookedSlot> stored){
+        Map<String, List<BookedSlot>> slotsByKey = new HashMap<>();
+        for (BookedSlot slot : stored) {
+            for (String key : slot.resourceKeys()) {
+                slotsByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(slot);
+            }
+        }
+        Map<String, StoredTimeline> timelines = new HashMap<>();
+        for (Map.Entry<String, List<BookedSlot>> entry : slotsByKey.entrySet()) {
+            timelines.put(entry.getKey(), new StoredTimeline(entry.getValue()));
+        }
+        return timelines;
+    }
+
+    // Stored slots of one resource sorted by start, with the latest finish seen so far at each
+    // position. A candidate overlaps one of them iff, among those starting before it finishes,
+    // the latest finish is after it starts: a binary search plus one comparison.
+    private static final class StoredTimeline {
+
+        private final LocalDateTime[] starts;
+        private final LocalDateTime[] maxFinishes;
+
+        StoredTimeline(List<BookedSlot> slots){
+            slots.sort(BY_START);
+            this.starts = new LocalDateTime[slots.size()];
+            this.maxFinishes = new LocalDateTime[slots.size()];
+            LocalDateTime max = null;
+            for (int i = 0; i < slots.size(); i++) {
+                BookedSlot slot = slots.get(i);
+                starts[i] = slot.getStartsAt();
+                max = max == null || slot.getFinishesAt().isAfter(max) ? slot.getFinishesAt() : max;
+                maxFinishes[i] = max;
+            }
+        }
+
+        boolean overlaps(BookedSlot candidate){
+            int low = 0;
+            int high = starts.length - 1;
+            int last = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid].isBefore(candidate.getFinishesAt())) {
+                    last = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return last >= 0 && maxFinishes[last].isAfter(candidate.getStartsAt());
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.example.demo.services;
+
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.TimeSlot;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+public final class FreeSlots {
+
+    private FreeSlots(){
+    }
+
+    // Gaps of at least the given duration between from and to, given the busy slots of one
+    // resource sorted by start. Busy slots may overlap or stick out of the window.
+    public static List<TimeSlot> between(LocalDateTime from, LocalDateTime to, Duration duration, List<TimeSlot> busy){
+        List<TimeSlot> free = new ArrayList<>();
+        LocalDateTime cursor = from;
+        for (TimeSlot slot : busy) {
+            if (!slot.getStartsAt().isAfter(cursor)) {
+                cursor = slot.getFinishesAt().isAfter(cursor) ? slot.getFinishesAt() : cursor;
+                continue;
+            }
+            LocalDateTime gapEnd = slot.getStartsAt().isBefore(to) ? slot.getStartsAt() : to;
+            if (!cursor.plus(duration).isAfter(gapEnd)) {
+                free.add(new TimeSlot(cursor, gapEnd));
+            }
+            cursor = slot.getFinishesAt();
+            if (!cursor.isBefore(to)) {
+                return free;
+            }
+        }
+        if (!cursor.plus(duration).isAfter(to)) {
+            free.add(new TimeSlot(cursor, to));
+        }
+        return free;
+    }
+
+    // Busy slots of one resource plus the occurrences of its recurring series within [from, to),
+    // sorted by start. Only the occurrences inside the window are expanded.
+    public static List<TimeSlot> busyWithSeries(List<TimeSlot> busy, List<BookedSeries> series, LocalDateTime from, LocalDateTime to){
+        if (series.isEmpty()) {
+            return busy;
+        }
+        List<TimeSlot> merged = new ArrayList<>(busy);
+        for (BookedSeries one : series) {
+            merged.addAll(one.occurrencesBetween(from, to));
+        }
+        merged.sort(Comparator.comparing(TimeSlot::getStartsAt));
+        return merged;
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.example.demo.services;
+
+import com.example.demo.repositories.DoctorRepository;
+import com.example.demo.repositories.PatientRepository;
+import com.example.demo.entities.Doctor;
+import com.example.demo.entities.Patient;
+import com.example.demo.entities.Person;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@Component
+public class PersonImporter {
+
+    // Same as hibernate.jdbc.batch_size, so every chunk goes out as one JDBC batch
+    static final int CHUNK_SIZE = 50;
+
+    // Same as the varchar(255) name and email columns
+    static final int MAX_FIELD_LENGTH = 255;
+
+    private static final String HEADER = "firstName,lastName,age,email";
+
+    private final DoctorRepository doctorRepository;
+    private final PatientRepository patientRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public PersonImporter(DoctorRepository doctorRepository, PatientRepository patientRepository,
+                          ObjectMapper objectMapper, PlatformTransactionManager transactionManager){
+        this.doctorRepository = doctorRepository;
+        this.patientRepository = patientRepository;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public void importDoctors(InputStream csv, OutputStream report, Runnable onChunkSaved) throws IOException {
+        importCsv(csv, report, Doctor::new, doctorRepository::saveAll, onChunkSaved);
+    }
+
+    public void importPatients(InputStream csv, OutputStream report, Runnable onChunkSaved) throws IOException {
+        importCsv(csv, report, Patient::new, patientRepository::saveAll, onChunkSaved);
+    }
+
+    // Reads "firstName,lastName,age,email" rows one line at a time and saves them CHUNK_SIZE at
+    // a time, each chunk in its own transaction. Rejected rows are reported as NDJSON while the
+    // upload is still being read, followed by one line with the totals.
+    private <T extends Person> void importCsv(InputStream csv, OutputStream report, PersonFactory<T> factory,
+                               Consumer<List<T>> saveAll, Runnable onChunkSaved) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(report);
+        generator.setRootValueSeparator(new SerializedString("\n"));
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8));
+        List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+        List<Integer> chunkLines = new ArrayList<>(CHUNK_SIZE);
+        long imported = 0;
+        long failed = 0;
+        int lineNumber = 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty() || (lineNumber == 1 && line.replace(" ", "").equalsIgnoreCase(HEADER))) {
+                continue;
+            }
+            try {
+                chunk.add(parse(line, factory));
+                chunkLines.add(lineNumber);
+            } catch (IllegalArgumentException e) {
+                writeError(generator, lineNumber, e.getMessage());
+                failed++;
+            }
+            if (chunk.size() == CHUNK_SIZE) {
+                int saved = saveChunk(generator, chunk, chunkLines, factory, saveAll, onChunkSaved);
+                imported += saved;
+                failed += chunkLines.size() - saved;
+                chunk.clear();
+                chunkLines.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            int saved = saveChunk(generator, chunk, chunkLines, factory, saveAll, onChunkSaved);
+            imported += saved;
+            failed += chunkLines.size() - saved;
+        }
+
+        generator.writeStartObject();
+        generator.writeNumberField("imported", imported);
+        generator.writeNumberField("failed", failed);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.close();
+    }
+
+    private <T extends Person> int saveChunk(JsonGenerator generator, List<T> chunk, List<Integer> chunkLines,
+                                             PersonFactory<T> factory, Consumer<List<T>> saveAll,
+                                             Runnable onChunkSaved) throws IOException {
+        int saved = 0;
+        try {
+            save(chunk, saveAll);
+            saved = chunk.size();
+        } catch (DataAccessException e) {
+            // One bad row rolls back the whole batch, so the chunk is saved again a row at a time
+            // to keep the good rows and report only the bad ones. The rolled back entities already
+            // hold an id, so fresh copies are saved instead.
+            for (int i = 0; i < chunk.size(); i++) {
+                T person = chunk.get(i);
+                try {
+                    save(Collections.singletonList(factory.create(person.getFirstName(), person.getLastName(),
+                            person.getAge(), person.getEmail())), saveAll);
+                    saved++;
+                } catch (DataAccessException rowException) {
+                    writeError(generator, chunkLines.get(i), "not saved: " + rowException.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+        if (saved > 0) {
+            onChunkSaved.run();
+        }
+        generator.flush();
+        return saved;
+    }
+
+    private <T> void save(List<T> rows, Consumer<List<T>> saveAll){
+        // The upload may share one persistence context from start to end (open-in-view),
+        // so each chunk is flushed as one batch and then dropped to keep the heap flat
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                saveAll.accept(rows);
+                entityManager.flush();
+                entityManager.clear();
+            });
+        } catch (PersistenceException e) {
+            // Thrown by the flush, which unlike the repositories does not translate it
+            DataAccessException translated = EntityManagerFactoryUtils.convertJpaAccessExceptionIfPossible(e);
+            throw translated != null ? translated : e;
+        }
+    }
+
+    private void writeError(JsonGenerator generator, int lineNumber, String error) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("line", lineNumber);
+        generator.writeStringField("error", error);
+        generator.writeEndObject();
+    }
+
+    private static <T> T parse(String line, PersonFactory<T> factory){
+        List<String> fields = splitCsv(line);
+        if (fields.size() != 4) {
+            throw new IllegalArgumentException("expected 4 fields but found " + fields.size());
+        }
+        for (String field : fields) {
+            if (field.isEmpty()) {
+                throw new IllegalArgumentException("empty field");
+            }
+            if (field.length() > MAX_FIELD_LENGTH) {
+                throw new IllegalArgumentException("field longer than " + MAX_FIELD_LENGTH + " characters");
+            }
+        }
+        int age;
+        try {
+            age = Integer.parseInt(fields.get(2));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("age is not a number: " + fields.get(2));
+        }
+        if (age < 0) {
+            throw new IllegalArgumentException("age is negative: " + age);
+        }
+        return factory.create(fields.get(0), fields.get(1), age, fields.get(3));
+    }
+
+    // RFC 4180 fields on a single line: commas split fields unless quoted, "" is a literal quote
+    private static List<String> splitCsv(String line){
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    private interface PersonFactory<T> {
+        T create(String firstName, String lastName, int age, String email);
+    }
+
+}
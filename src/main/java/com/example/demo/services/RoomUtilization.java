@@ -0,0 +1,99 @@
+package com.example.demo.services;
+
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.DayUsage;
+import com.example.demo.dto.TimeSlot;
+import com.example.demo.entities.Appointment;
+import com.example.demo.entities.RoomUsage;
+import com.example.demo.entities.RoomUsageId;
+import com.example.demo.repositories.RecurringAppointmentRepository;
+import com.example.demo.repositories.RoomUsageRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+// Booked minutes per room and day, adjusted on every booking and delete so that reading the
+// utilization of a date range costs one primary key range scan instead of a pass over all
+// appointments. Updates join the caller's transaction and commit or roll back with it.
+@Component
+public class RoomUtilization {
+
+    private final RoomUsageRepository roomUsageRepository;
+    private final RecurringAppointmentRepository recurringAppointmentRepository;
+
+    public RoomUtilization(RoomUsageRepository roomUsageRepository, RecurringAppointmentRepository recurringAppointmentRepository){
+        this.roomUsageRepository = roomUsageRepository;
+        this.recurringAppointmentRepository = recurringAppointmentRepository;
+    }
+
+    @Transactional
+    public void booked(Collection<Appointment> appointments){
+        for (Map.Entry<RoomUsageId, Long> day : minutesByRoomDay(appointments).entrySet()) {
+            RoomUsageId id = day.getKey();
+            // Only the first booking of a room on a day inserts. Bookings of a room hold its row
+            // lock, so two of them can never both find the day missing.
+            if (roomUsageRepository.addMinutes(id.getRoomName(), id.getUsageDate(), day.getValue()) == 0) {
+                roomUsageRepository.save(new RoomUsage(id.getRoomName(), id.getUsageDate(), day.getValue()));
+            }
+        }
+    }
+
+    @Transactional
+    public void released(Appointment appointment){
+        for (Map.Entry<RoomUsageId, Long> day : minutesByRoomDay(Collections.singletonList(appointment)).entrySet()) {
+            roomUsageRepository.addMinutes(day.getKey().getRoomName(), day.getKey().getUsageDate(), -day.getValue());
+        }
+    }
+
+    @Transactional
+    public void clear(){
+        roomUsageRepository.deleteAllInBatch();
+    }
+
+    // One entry per day of [from, to], zero for the days nothing was booked. Recurring appointments
+    // are not kept per day: their occurrences within the range are added up here, each on the day
+    // it starts like an appointment.
+    public List<DayUsage> between(String roomName, LocalDate from, LocalDate to){
+        Map<LocalDate, Long> booked = new HashMap<>();
+        for (RoomUsage usage : roomUsageRepository.findByRoomNameAndUsageDateBetweenOrderByUsageDateAsc(roomName, from, to)) {
+            booked.put(usage.getUsageDate(), usage.getBookedMinutes());
+        }
+        LocalDateTime start = from.atStartOfDay();
+        LocalDateTime end = to.plusDays(1).atStartOfDay();
+        for (BookedSeries series : recurringAppointmentRepository.findRoomSeries(roomName, start, end)) {
+            for (TimeSlot occurrence : series.occurrencesBetween(start, end)) {
+                if (!occurrence.getStartsAt().isBefore(start)) {
+                    booked.merge(occurrence.getStartsAt().toLocalDate(),
+                            Duration.between(occurrence.getStartsAt(), occurrence.getFinishesAt()).toMinutes(), Long::sum);
+                }
+            }
+        }
+        List<DayUsage> days = new ArrayList<>();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            days.add(new DayUsage(date, booked.getOrDefault(date, 0L)));
+        }
+        return days;
+    }
+
+    // Appointments of the same room and day are summed first, so a batch costs one update per day
+    private static Map<RoomUsageId, Long> minutesByRoomDay(Collection<Appointment> appointments){
+        Map<RoomUsageId, Long> minutes = new LinkedHashMap<>();
+        for (Appointment appointment : appointments) {
+            RoomUsageId id = new RoomUsageId(appointment.getRoom().getRoomName(), appointment.getStartsAt().toLocalDate());
+            minutes.merge(id, Duration.between(appointment.getStartsAt(), appointment.getFinishesAt()).toMinutes(), Long::sum);
+        }
+        return minutes;
+    }
+
+}
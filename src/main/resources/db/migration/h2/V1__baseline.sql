@@ -0,0 +1,45 @@
+-- Schema as ddl-auto=update created it before migrations took over
+
+create sequence appointment_sequence start with 1 increment by 100;
+create sequence doctor_sequence start with 1 increment by 50;
+create sequence patient_sequence start with 1 increment by 50;
+
+create table doctors (
+    id bigint not null,
+    age integer not null,
+    email varchar(255),
+    first_name varchar(255),
+    last_name varchar(255),
+    primary key (id)
+);
+
+create table patient (
+    id bigint not null,
+    age integer not null,
+    email varchar(255),
+    first_name varchar(255),
+    last_name varchar(255),
+    primary key (id)
+);
+
+create table room (
+    room_name varchar(255) not null,
+    primary key (room_name)
+);
+
+create table appointment (
+    id bigint not null,
+    finishes_at timestamp,
+    starts_at timestamp,
+    doctor_id bigint,
+    patient_id bigint,
+    room_id varchar(255),
+    primary key (id)
+);
+
+create index idx_appointment_room_starts_at on appointment (room_id, starts_at);
+create index idx_appointment_doctor_starts_at on appointment (doctor_id, starts_at);
+
+alter table appointment add constraint fk_appointment_doctor foreign key (doctor_id) references doctors (id);
+alter table appointment add constraint fk_appointment_patient foreign key (patient_id) references patient (id);
+alter table appointment add constraint fk_appointment_room foreign key (room_id) references room (room_name);
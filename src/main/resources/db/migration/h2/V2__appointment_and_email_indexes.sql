@@ -0,0 +1,8 @@
+-- Range lookups by room also filter on finishes_at, so it joins the room index
+create index idx_appointment_room_starts_finishes on appointment (room_id, starts_at, finishes_at);
+drop index idx_appointment_room_starts_at;
+
+create index idx_appointment_patient_starts_at on appointment (patient_id, starts_at);
+
+create index idx_doctors_email on doctors (email);
+create index idx_patient_email on patient (email);
@@ -0,0 +1,13 @@
+-- Booked minutes per room and day, counted on the day each appointment starts
+create table room_usage (
+    room_name varchar(255) not null,
+    usage_date date not null,
+    booked_minutes bigint not null,
+    primary key (room_name, usage_date)
+);
+
+insert into room_usage (room_name, usage_date, booked_minutes)
+select room_id, cast(starts_at as date), sum(datediff('MINUTE', starts_at, finishes_at))
+from appointment
+where room_id is not null
+group by room_id, cast(starts_at as date);
@@ -0,0 +1,21 @@
+-- One row per series: occurrences are computed from the first one, the period and the count
+create table recurring_appointment (
+    id bigint generated by default as identity,
+    patient_id bigint not null,
+    doctor_id bigint not null,
+    room_id varchar(255) not null,
+    starts_at timestamp not null,
+    finishes_at timestamp not null,
+    repeat_every_days integer not null,
+    occurrences integer not null,
+    last_finishes_at timestamp not null,
+    primary key (id)
+);
+
+create index idx_recurring_appointment_room_starts_at on recurring_appointment (room_id, starts_at);
+create index idx_recurring_appointment_doctor_starts_at on recurring_appointment (doctor_id, starts_at);
+create index idx_recurring_appointment_patient_starts_at on recurring_appointment (patient_id, starts_at);
+
+alter table recurring_appointment add constraint fk_recurring_appointment_doctor foreign key (doctor_id) references doctors (id);
+alter table recurring_appointment add constraint fk_recurring_appointment_patient foreign key (patient_id) references patient (id);
+alter table recurring_appointment add constraint fk_recurring_appointment_room foreign key (room_id) references room (room_name);
@@ -0,0 +1,3 @@
+-- Recurring appointment ids come from their own sequence in blocks, like the other entities
+create sequence recurring_appointment_sequence start with 1 increment by 50;
+alter table recurring_appointment alter column id drop identity;
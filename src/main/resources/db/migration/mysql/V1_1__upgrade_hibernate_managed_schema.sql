@@ -0,0 +1,35 @@
+-- Databases baselined at version 1 were created by ddl-auto=update, not by V1, and may lack
+-- parts of it: the id sequence tables (they used hibernate_sequence) and the named indexes that
+-- V2 replaces. Everything here checks first, so on a database created by V1 it changes nothing.
+
+-- Sequence tables start after the ids already taken. A table that ddl-auto=update created with
+-- next_val = 1 next to existing rows is moved past them as well.
+create table if not exists appointment_sequence (next_val bigint) engine=InnoDB;
+insert into appointment_sequence (next_val) select 1 from dual where not exists (select * from appointment_sequence);
+update appointment_sequence set next_val = (select coalesce(max(id), 0) + 1 from appointment)
+    where next_val <= (select coalesce(max(id), 0) from appointment);
+
+create table if not exists doctor_sequence (next_val bigint) engine=InnoDB;
+insert into doctor_sequence (next_val) select 1 from dual where not exists (select * from doctor_sequence);
+update doctor_sequence set next_val = (select coalesce(max(id), 0) + 1 from doctors)
+    where next_val <= (select coalesce(max(id), 0) from doctors);
+
+create table if not exists patient_sequence (next_val bigint) engine=InnoDB;
+insert into patient_sequence (next_val) select 1 from dual where not exists (select * from patient_sequence);
+update patient_sequence set next_val = (select coalesce(max(id), 0) + 1 from patient)
+    where next_val <= (select coalesce(max(id), 0) from patient);
+
+-- MySQL has no "create index if not exists", so the statement is picked from information_schema
+set @ddl = (select if(count(*) = 0, 'create index idx_appointment_room_starts_at on appointment (room_id, starts_at)', 'select 1')
+    from information_schema.statistics
+    where table_schema = database() and table_name = 'appointment' and index_name = 'idx_appointment_room_starts_at');
+prepare ddl from @ddl;
+execute ddl;
+deallocate prepare ddl;
+
+set @ddl = (select if(count(*) = 0, 'create index idx_appointment_doctor_starts_at on appointment (doctor_id, starts_at)', 'select 1')
+    from information_schema.statistics
+    where table_schema = database() and table_name = 'appointment' and index_name = 'idx_appointment_doctor_starts_at');
+prepare ddl from @ddl;
+execute ddl;
+deallocate prepare ddl;
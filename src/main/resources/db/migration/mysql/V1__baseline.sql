@@ -0,0 +1,49 @@
+-- Schema as ddl-auto=update created it before migrations took over. Databases that already
+-- have it are baselined at this version (spring.flyway.baseline-on-migrate) and skip this script.
+
+create table appointment_sequence (next_val bigint) engine=InnoDB;
+insert into appointment_sequence values (1);
+create table doctor_sequence (next_val bigint) engine=InnoDB;
+insert into doctor_sequence values (1);
+create table patient_sequence (next_val bigint) engine=InnoDB;
+insert into patient_sequence values (1);
+
+create table doctors (
+    id bigint not null,
+    age integer not null,
+    email varchar(255),
+    first_name varchar(255),
+    last_name varchar(255),
+    primary key (id)
+) engine=InnoDB;
+
+create table patient (
+    id bigint not null,
+    age integer not null,
+    email varchar(255),
+    first_name varchar(255),
+    last_name varchar(255),
+    primary key (id)
+) engine=InnoDB;
+
+create table room (
+    room_name varchar(255) not null,
+    primary key (room_name)
+) engine=InnoDB;
+
+create table appointment (
+    id bigint not null,
+    finishes_at datetime,
+    starts_at datetime,
+    doctor_id bigint,
+    patient_id bigint,
+    room_id varchar(255),
+    primary key (id)
+) engine=InnoDB;
+
+create index idx_appointment_room_starts_at on appointment (room_id, starts_at);
+create index idx_appointment_doctor_starts_at on appointment (doctor_id, starts_at);
+
+alter table appointment add constraint fk_appointment_doctor foreign key (doctor_id) references doctors (id);
+alter table appointment add constraint fk_appointment_patient foreign key (patient_id) references patient (id);
+alter table appointment add constraint fk_appointment_room foreign key (room_id) references room (room_name);
@@ -0,0 +1,9 @@
+-- Range lookups by room also filter on finishes_at, so it joins the room index. The new index
+-- is created first because the room foreign key needs one leading with room_id at all times.
+create index idx_appointment_room_starts_finishes on appointment (room_id, starts_at, finishes_at);
+drop index idx_appointment_room_starts_at on appointment;
+
+create index idx_appointment_patient_starts_at on appointment (patient_id, starts_at);
+
+create index idx_doctors_email on doctors (email);
+create index idx_patient_email on patient (email);
@@ -0,0 +1,15 @@
+-- Outbox of appointment changes, written with the appointments and relayed to stream subscribers
+create table appointment_change (
+    id bigint not null auto_increment,
+    type varchar(16) not null,
+    appointment_id bigint,
+    room_name varchar(255),
+    doctor_id bigint,
+    patient_id bigint,
+    starts_at datetime,
+    finishes_at datetime,
+    occurred_at datetime not null,
+    primary key (id)
+) engine=InnoDB;
+
+create index idx_appointment_change_occurred_at on appointment_change (occurred_at);
@@ -0,0 +1,5 @@
+-- Recurring appointment ids come from their own sequence table in blocks, like the other
+-- entities, starting after any id auto_increment already handed out
+create table recurring_appointment_sequence (next_val bigint) engine=InnoDB;
+insert into recurring_appointment_sequence select coalesce(max(id), 0) + 1 from recurring_appointment;
+alter table recurring_appointment modify id bigint not null;
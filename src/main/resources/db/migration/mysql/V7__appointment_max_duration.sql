@@ -0,0 +1,4 @@
+-- Overlap checks look back only Appointment.MAX_DURATION (24 hours) for an appointment that may
+-- still be running, so no longer one may be stored. Fails if one already is: shorten or split it
+-- and run the migration again.
+alter table appointment add constraint ck_appointment_max_duration check (finishes_at <= starts_at + interval 24 hour);
@@ -0,0 +1,4 @@
+-- Creations and deletions of recurring series go through the outbox as well
+alter table appointment_change add column recurring_appointment_id bigint;
+alter table appointment_change add column repeat_every_days int;
+alter table appointment_change add column occurrences int;
@@ -0,0 +1,166 @@
+package com.example.demo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.example.demo.controllers.AdmissionFilter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AdmissionFilterUnitTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private MockHttpServletRequest request(String method, String uri, String client){
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setRemoteAddr(client);
+        return request;
+    }
+
+    private MockHttpServletResponse perform(AdmissionFilter filter, MockHttpServletRequest request, MockFilterChain chain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    @Test
+    void shouldRateLimitAClientOnceItsBurstIsSpent() throws Exception {
+        AdmissionFilter filter = new AdmissionFilter(0.5, 2, 10, 10, meterRegistry);
+
+        assertThat(perform(filter, request("GET", "/api/doctors", "10.0.0.1"), new MockFilterChain()).getStatus()).isEqualTo(200);
+        assertThat(perform(filter, request("GET", "/api/doctors", "10.0.0.1"), new MockFilterChain()).getStatus()).isEqualTo(200);
+
+        MockHttpServletResponse limited = perform(filter, request("GET", "/api/doctors", "10.0.0.1"), new MockFilterChain());
+        assertThat(limited.getStatus()).isEqualTo(429);
+        assertThat(limited.getHeader("Retry-After")).isEqualTo("2");
+
+        // Other clients keep their own bucket
+        assertThat(perform(filter, request("GET", "/api/doctors", "10.0.0.2"), new MockFilterChain()).getStatus()).isEqualTo(200);
+        assertThat(meterRegistry.get("admission.rejected").tag("reason", "rate_limited").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("admission.rate.clients").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldShedWritesBeyondTheConcurrencyLimitWithoutBlockingReads() throws Exception {
+        AdmissionFilter filter = new AdmissionFilter(100, 100, 1, 1, meterRegistry);
+        AtomicInteger inUse = new AtomicInteger();
+        MockHttpServletResponse[] nested = new MockHttpServletResponse[2];
+
+        // While the first booking is in flight, a second booking is shed and a read still gets through
+        MockFilterChain booking = new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp){
+                inUse.set((int) meterRegistry.get("admission.concurrency.in_use").tag("group", "writes").gauge().value());
+                try {
+                    nested[0] = perform(filter, request("POST", "/api/appointment", "10.0.0.2"), new MockFilterChain());
+                    nested[1] = perform(filter, request("GET", "/api/appointments", "10.0.0.2"), new MockFilterChain());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        assertThat(perform(filter, request("POST", "/api/appointment", "10.0.0.1"), booking).getStatus()).isEqualTo(200);
+
+        assertThat(inUse.get()).isEqualTo(1);
+        assertThat(nested[0].getStatus()).isEqualTo(503);
+        assertThat(nested[0].getHeader("Retry-After")).isEqualTo("1");
+        assertThat(nested[1].getStatus()).isEqualTo(200);
+        assertThat(meterRegistry.get("admission.concurrency.in_use").tag("group", "writes").gauge().value()).isZero();
+        assertThat(meterRegistry.get("admission.rejected").tag("reason", "overloaded").tag("group", "writes").counter().count()).isEqualTo(1);
+
+        // The permit is back once the booking has finished
+        assertThat(perform(filter, request("POST", "/api/appointment", "10.0.0.2"), new MockFilterChain()).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void shouldHoldThePermitOfAnAsyncRequestUntilItCompletes() throws Exception {
+        AdmissionFilter filter = new AdmissionFilter(100, 100, 1, 1, meterRegistry);
+        MockHttpServletRequest export = request("GET", "/api/appointments/export", "10.0.0.1");
+        export.setAsyncSupported(true);
+
+        // The controller hands the response over to another thread and returns
+        MockFilterChain streaming = new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp){
+                req.startAsync();
+            }
+        });
+        assertThat(perform(filter, export, streaming).getStatus()).isEqualTo(200);
+
+        assertThat(meterRegistry.get("admission.concurrency.in_use").tag("group", "reads").gauge().value()).isEqualTo(1);
+        assertThat(perform(filter, request("GET", "/api/doctors", "10.0.0.2"), new MockFilterChain()).getStatus()).isEqualTo(503);
+
+        ((MockAsyncContext) export.getAsyncContext()).complete();
+
+        assertThat(meterRegistry.get("admission.concurrency.in_use").tag("group", "reads").gauge().value()).isZero();
+        assertThat(perform(filter, request("GET", "/api/doctors", "10.0.0.2"), new MockFilterChain()).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void shouldKeepOpenStreamsFromTakingThePermitsOfReads() throws Exception {
+        AdmissionFilter filter = new AdmissionFilter(100, 100, 1, 1, 2, null, meterRegistry);
+        HttpServlet subscribing = new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp){
+                req.startAsync();
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletRequest stream = request("GET", "/api/appointments/stream", "10.0.0." + i);
+            stream.setAsyncSupported(true);
+            assertThat(perform(filter, stream, new MockFilterChain(subscribing)).getStatus()).isEqualTo(200);
+        }
+        assertThat(meterRegistry.get("admission.concurrency.in_use").tag("group", "streams").gauge().value()).isEqualTo(2);
+
+        // Plain reads still get their permit while both streams stay open
+        assertThat(perform(filter, request("GET", "/api/doctors", "10.0.0.5"), new MockFilterChain()).getStatus()).isEqualTo(200);
+        assertThat(perform(filter, request("GET", "/api/appointments", "10.0.0.5"), new MockFilterChain()).getStatus()).isEqualTo(200);
+        assertThat(meterRegistry.get("admission.concurrency.in_use").tag("group", "reads").gauge().value()).isZero();
+
+        MockHttpServletRequest third = request("GET", "/api/appointments/stream", "10.0.0.9");
+        third.setAsyncSupported(true);
+        assertThat(perform(filter, third, new MockFilterChain(subscribing)).getStatus()).isEqualTo(503);
+        assertThat(meterRegistry.get("admission.rejected").tag("reason", "overloaded").tag("group", "streams").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldTellClientsBehindAProxyApartByTheConfiguredHeader() throws Exception {
+        AdmissionFilter filter = new AdmissionFilter(0.5, 1, 10, 10, 10, "X-Forwarded-For", meterRegistry);
+        MockHttpServletRequest first = request("GET", "/api/doctors", "10.0.0.100");
+        first.addHeader("X-Forwarded-For", "203.0.113.1");
+        MockHttpServletRequest second = request("GET", "/api/doctors", "10.0.0.100");
+        second.addHeader("X-Forwarded-For", "203.0.113.2");
+        // Only the address the proxy appended counts, not the one the client sent in front of it
+        MockHttpServletRequest spoofed = request("GET", "/api/doctors", "10.0.0.100");
+        spoofed.addHeader("X-Forwarded-For", "198.51.100.7, 203.0.113.1");
+
+        assertThat(perform(filter, first, new MockFilterChain()).getStatus()).isEqualTo(200);
+        assertThat(perform(filter, second, new MockFilterChain()).getStatus()).isEqualTo(200);
+        assertThat(perform(filter, spoofed, new MockFilterChain()).getStatus()).isEqualTo(429);
+        // Without the header, the proxy's own address is the client
+        assertThat(perform(filter, request("GET", "/api/doctors", "10.0.0.100"), new MockFilterChain()).getStatus()).isEqualTo(200);
+        assertThat(meterRegistry.get("admission.rate.clients").gauge().value()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldLeaveRequestsOutsideTheApiAlone() throws Exception {
+        AdmissionFilter filter = new AdmissionFilter(0.5, 1, 0, 0, meterRegistry);
+
+        assertThat(perform(filter, request("GET", "/actuator/health", "10.0.0.1"), new MockFilterChain()).getStatus()).isEqualTo(200);
+        assertThat(perform(filter, request("GET", "/actuator/health", "10.0.0.1"), new MockFilterChain()).getStatus()).isEqualTo(200);
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.example.demo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.controllers.AppointmentController;
+import com.example.demo.repositories.*;
+import com.example.demo.entities.*;
+import com.example.demo.services.BookingLocks;
+
+@SpringBootTest
+class AppointmentBookingStressTest {
+
+    private static final int THREADS = 16;
+
+    @Autowired
+    private AppointmentController appointmentController;
+
+    @Autowired
+    private AppointmentRepository appointmentRepository;
+
+    @Autowired
+    private DoctorRepository doctorRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private RoomRepository roomRepository;
+
+    @Autowired
+    private RoomUsageRepository roomUsageRepository;
+
+    @Autowired
+    private BookingLocks bookingLocks;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    @AfterEach
+    void afterEach(){
+        ReflectionTestUtils.setField(appointmentController, "bookingLocks", bookingLocks);
+        appointmentRepository.deleteAll();
+        doctorRepository.deleteAll();
+        patientRepository.deleteAll();
+        roomRepository.deleteAll();
+        roomUsageRepository.deleteAll();
+    }
+
+    // Every booking runs in its own transaction without the in-process stripes, as if each thread
+    // were another application node: only the database row locks keep them apart
+    private void bookAsSeparateNodes(){
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        ReflectionTestUtils.setField(appointmentController, "bookingLocks", new BookingLocks(transactionManager) {
+            @Override
+            public <T> T runLocked(Collection<Appointment> appointments, Supplier<T> booking){
+                return transactionTemplate.execute(status -> booking.get());
+            }
+        });
+    }
+
+    private List<HttpStatus> bookConcurrently(List<Appointment> appointments) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(appointments.size());
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<ResponseEntity<Appointment>>> futures = new ArrayList<>();
+            for (Appointment appointment : appointments) {
+                Callable<ResponseEntity<Appointment>> booking = () -> {
+                    start.await();
+                    return appointmentController.createAppointment(appointment);
+                };
+                futures.add(executor.submit(booking));
+            }
+            start.countDown();
+
+            List<HttpStatus> statuses = new ArrayList<>();
+            for (Future<ResponseEntity<Appointment>> future : futures) {
+                statuses.add(future.get().getStatusCode());
+            }
+            return statuses;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldBookTheSameRoomAndSlotOnlyOnce() throws Exception {
+        roomRepository.save(new Room("Dermatology"));
+
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        List<Appointment> appointments = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Patient patient = patientRepository.save(new Patient("Patient" + i, "Olaya", 37, "patient" + i + "@email.com"));
+            Doctor doctor = doctorRepository.save(new Doctor ("Doctor" + i, "Amalia", 24, "doctor" + i + "@hospital.accwe"));
+            appointments.add(new Appointment(patient, doctor, new Room("Dermatology"), startsAt, finishesAt));
+        }
+
+        List<HttpStatus> statuses = bookConcurrently(appointments);
+
+        assertThat(statuses).filteredOn(status -> status == HttpStatus.OK).hasSize(1);
+        assertThat(statuses).filteredOn(status -> status == HttpStatus.NOT_ACCEPTABLE).hasSize(THREADS - 1);
+        assertThat(appointmentRepository.count()).isEqualTo(1);
+        assertThat(roomUsageRepository.findAll()).extracting(RoomUsage::getBookedMinutes).containsExactly(60L);
+    }
+
+    @Test
+    void shouldBookTheSameSlotInDifferentRoomsConcurrently() throws Exception {
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        List<Appointment> appointments = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Room room = roomRepository.save(new Room("Room" + i));
+            Patient patient = patientRepository.save(new Patient("Patient" + i, "Olaya", 37, "patient" + i + "@email.com"));
+            Doctor doctor = doctorRepository.save(new Doctor ("Doctor" + i, "Amalia", 24, "doctor" + i + "@hospital.accwe"));
+            appointments.add(new Appointment(patient, doctor, room, startsAt, finishesAt));
+        }
+
+        List<HttpStatus> statuses = bookConcurrently(appointments);
+
+        assertThat(statuses).containsOnly(HttpStatus.OK);
+        assertThat(appointmentRepository.count()).isEqualTo(THREADS);
+    }
+
+    @Test
+    void shouldBookTheSameDoctorOnlyOnceAcrossRoomsAndNodes() throws Exception {
+        bookAsSeparateNodes();
+        Doctor doctor = doctorRepository.save(new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe"));
+
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        List<Appointment> appointments = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Room room = roomRepository.save(new Room("Room" + i));
+            Patient patient = patientRepository.save(new Patient("Patient" + i, "Olaya", 37, "patient" + i + "@email.com"));
+            appointments.add(new Appointment(patient, doctor, room, startsAt, finishesAt));
+        }
+
+        List<HttpStatus> statuses = bookConcurrently(appointments);
+
+        assertThat(statuses).filteredOn(status -> status == HttpStatus.OK).hasSize(1);
+        assertThat(statuses).filteredOn(status -> status == HttpStatus.NOT_ACCEPTABLE).hasSize(THREADS - 1);
+        assertThat(appointmentRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldBookTheSamePatientOnlyOnceAcrossRoomsAndNodes() throws Exception {
+        bookAsSeparateNodes();
+        Patient patient = patientRepository.save(new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com"));
+
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        List<Appointment> appointments = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Room room = roomRepository.save(new Room("Room" + i));
+            Doctor doctor = doctorRepository.save(new Doctor ("Doctor" + i, "Amalia", 24, "doctor" + i + "@hospital.accwe"));
+            // Overlapping but not equal slots, so no two bookings are the same request
+            appointments.add(new Appointment(patient, doctor, room, startsAt.plusMinutes(i), finishesAt.plusMinutes(i)));
+        }
+
+        List<HttpStatus> statuses = bookConcurrently(appointments);
+
+        assertThat(statuses).filteredOn(status -> status == HttpStatus.OK).hasSize(1);
+        assertThat(statuses).filteredOn(status -> status == HttpStatus.NOT_ACCEPTABLE).hasSize(THREADS - 1);
+        assertThat(appointmentRepository.count()).isEqualTo(1);
+    }
+
+}
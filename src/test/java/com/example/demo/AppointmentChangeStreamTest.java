@@ -0,0 +1,322 @@
+package com.example.demo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CountDownLatch;
+
+import javax.servlet.Filter;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.example.demo.repositories.*;
+import com.example.demo.entities.*;
+import com.example.demo.services.AppointmentChangeFeed;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest(properties = "appointments.stream.send-timeout-ms=1000")
+@AutoConfigureMockMvc
+class AppointmentChangeStreamTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AppointmentRepository appointmentRepository;
+
+    @Autowired
+    private AppointmentChangeRepository appointmentChangeRepository;
+
+    @Autowired
+    private AppointmentChangeFeed appointmentChangeFeed;
+
+    @Autowired
+    private DoctorRepository doctorRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private RoomRepository roomRepository;
+
+    @Autowired
+    private RoomUsageRepository roomUsageRepository;
+
+    @Autowired
+    private RecurringAppointmentRepository recurringAppointmentRepository;
+
+    private final CountDownLatch unstall = new CountDownLatch(1);
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    @AfterEach
+    void afterEach(){
+        unstall.countDown();
+        appointmentRepository.deleteAll();
+        recurringAppointmentRepository.deleteAll();
+        doctorRepository.deleteAll();
+        patientRepository.deleteAll();
+        roomRepository.deleteAll();
+        roomUsageRepository.deleteAll();
+    }
+
+    private long book(String startsAt) throws Exception {
+        return book(startsAt, "Dermatology");
+    }
+
+    private long book(String startsAt, String roomName) throws Exception {
+        Patient patient = patientRepository.save(new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com"));
+        Doctor doctor = doctorRepository.save(new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe"));
+        Room room = roomRepository.save(new Room(roomName));
+        LocalDateTime start = LocalDateTime.parse(startsAt, formatter);
+        Appointment appointment = new Appointment(patient, doctor, room, start, start.plusHours(1));
+
+        String body = mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(appointment)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        JsonNode saved = objectMapper.readTree(body);
+        return saved.get("id").asLong();
+    }
+
+    // Events are relayed by the scheduler, so the test waits for them to show up in the response
+    private String awaitEvents(MvcResult stream, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        String content = stream.getResponse().getContentAsString();
+        while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            content = stream.getResponse().getContentAsString();
+        }
+        return content;
+    }
+
+    @Test
+    void shouldPushCreatesAndDeletesToSubscribers() throws Exception {
+        MvcResult stream = mockMvc.perform(get("/api/appointments/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        long id = book("19:30 24/04/2023");
+        mockMvc.perform(delete("/api/appointments/" + id)).andExpect(status().isOk());
+
+        String events = awaitEvents(stream, "event:DELETED");
+
+        assertThat(events).contains("event:CREATED", "event:DELETED", "\"appointmentId\":" + id);
+        assertThat(events.indexOf("event:CREATED")).isLessThan(events.indexOf("event:DELETED"));
+    }
+
+    // A client that stopped reading: every write to its response blocks until the test lets go
+    private final class StalledResponse extends HttpServletResponseWrapper {
+
+        StalledResponse(HttpServletResponse response){
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            ServletOutputStream body = super.getOutputStream();
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    stall();
+                    body.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    stall();
+                    body.write(b, off, len);
+                }
+
+                @Override
+                public boolean isReady(){
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener){
+                    body.setWriteListener(writeListener);
+                }
+            };
+        }
+
+        private void stall() throws IOException {
+            try {
+                unstall.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Test
+    void shouldKeepPushingToOtherSubscribersWhileOneStopsReading() throws Exception {
+        Filter stalling = (request, response, chain) -> chain.doFilter(request, new StalledResponse((HttpServletResponse) response));
+        MvcResult stalled = MockMvcBuilders.webAppContextSetup(context).addFilters(stalling).build()
+                .perform(get("/api/appointments/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult stream = mockMvc.perform(get("/api/appointments/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // Both go live as soon as they find nothing to replay
+        Thread.sleep(200);
+
+        long first = book("19:30 24/04/2023");
+        assertThat(awaitEvents(stream, "\"appointmentId\":" + first)).contains("\"appointmentId\":" + first);
+
+        // Stuck for longer than the send timeout, the stalled subscriber is dropped with the next change
+        Thread.sleep(1500);
+        long second = book("21:30 24/04/2023", "Oncology");
+        assertThat(awaitEvents(stream, "\"appointmentId\":" + second)).contains("\"appointmentId\":" + second);
+
+        unstall.countDown();
+        assertThat(awaitEvents(stalled, "\"appointmentId\":" + first)).contains("\"appointmentId\":" + first);
+        Thread.sleep(500);
+        assertThat(stalled.getResponse().getContentAsString()).doesNotContain("\"appointmentId\":" + second);
+    }
+
+    @Test
+    void shouldSyncOnlyTheChangesAfterAVersion() throws Exception {
+        long since = appointmentChangeRepository.findLastId();
+        long kept = book("19:30 24/04/2023");
+        long removed = book("21:30 24/04/2023");
+        mockMvc.perform(delete("/api/appointments/" + removed)).andExpect(status().isOk());
+
+        // The relay settles the new changes within a poll or two
+        long deadline = System.currentTimeMillis() + 10000;
+        while (appointmentChangeFeed.settledId() < since + 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        mockMvc.perform(get("/api/appointments/changes").param("since", String.valueOf(since)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].appointmentId").value(kept))
+                .andExpect(jsonPath("$[2].type").value("DELETED"))
+                .andExpect(jsonPath("$[2].appointmentId").value(removed));
+    }
+
+    @Test
+    void shouldSyncFromTheVersionOfAFullDownload() throws Exception {
+        book("19:30 24/04/2023");
+        awaitSettled(appointmentChangeRepository.findLastId());
+
+        String version = mockMvc.perform(get("/api/appointments"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andReturn().getResponse().getHeader("X-Change-Version");
+        assertThat(version).isNotNull();
+        mockMvc.perform(get("/api/appointments/export"))
+                .andExpect(header().exists("X-Change-Version"));
+
+        long added = book("21:30 24/04/2023");
+        awaitSettled(appointmentChangeRepository.findLastId());
+
+        String next = mockMvc.perform(get("/api/appointments/changes").param("since", version))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].type").value("CREATED"))
+                .andExpect(jsonPath("$[0].appointmentId").value(added))
+                .andReturn().getResponse().getHeader("X-Change-Version");
+        // Caught up: nothing more, and the version to ask from next time
+        mockMvc.perform(get("/api/appointments/changes").param("since", next))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string("X-Change-Version", next));
+    }
+
+    @Test
+    void shouldSyncTheCreationAndDeletionOfASeries() throws Exception {
+        long since = appointmentChangeRepository.findLastId();
+        Patient patient = patientRepository.save(new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com"));
+        Doctor doctor = doctorRepository.save(new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe"));
+        Room room = roomRepository.save(new Room("Physiotherapy"));
+        RecurringAppointment weekly = new RecurringAppointment(patient, doctor, room,
+                LocalDateTime.parse("19:30 03/04/2023", formatter), LocalDateTime.parse("20:30 03/04/2023", formatter), 7, 10);
+
+        String body = mockMvc.perform(post("/api/recurring-appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(weekly)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        long id = objectMapper.readTree(body).get("id").asLong();
+        mockMvc.perform(delete("/api/recurring-appointments/" + id)).andExpect(status().isOk());
+        awaitSettled(since + 2);
+
+        mockMvc.perform(get("/api/appointments/changes").param("since", String.valueOf(since)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].type").value("SERIES_CREATED"))
+                .andExpect(jsonPath("$[0].recurringAppointmentId").value(id))
+                .andExpect(jsonPath("$[0].roomName").value("Physiotherapy"))
+                .andExpect(jsonPath("$[0].startsAt").value("19:30 03/04/2023"))
+                .andExpect(jsonPath("$[0].repeatEveryDays").value(7))
+                .andExpect(jsonPath("$[0].occurrences").value(10))
+                .andExpect(jsonPath("$[1].type").value("SERIES_DELETED"))
+                .andExpect(jsonPath("$[1].recurringAppointmentId").value(id));
+    }
+
+    private void awaitSettled(long id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (appointmentChangeFeed.settledId() < id && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    void shouldReplayWhatAReconnectingClientMissed() throws Exception {
+        long lastSeen = appointmentChangeRepository.findLastId();
+        long id = book("19:30 24/04/2023");
+
+        MvcResult stream = mockMvc.perform(get("/api/appointments/stream").header("Last-Event-ID", lastSeen))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String events = awaitEvents(stream, "event:CREATED");
+
+        assertThat(events).contains("id:" + (lastSeen + 1), "\"appointmentId\":" + id, "\"startsAt\":\"19:30 24/04/2023\"");
+    }
+
+    @Test
+    void shouldTellAClientWhoseMissedChangesWerePurgedToStartOver() throws Exception {
+        long lastSeen = appointmentChangeRepository.findLastId();
+        book("19:30 24/04/2023");
+        book("21:30 24/04/2023");
+        awaitSettled(appointmentChangeRepository.findLastId());
+        // The oldest change the client missed is gone, as if a day had passed
+        appointmentChangeRepository.deleteAll(appointmentChangeRepository.findBetween(0, lastSeen + 1, PageRequest.of(0, 1000)));
+
+        MvcResult stream = mockMvc.perform(get("/api/appointments/stream").header("Last-Event-ID", lastSeen))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertThat(awaitEvents(stream, "event:RESET")).contains("event:RESET").doesNotContain("event:CREATED");
+    }
+
+}
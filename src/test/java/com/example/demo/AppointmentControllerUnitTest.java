@@ -1,8 +1,16 @@
 package com.example.demo;
 
+import static org.hamcrest.Matchers.not;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -11,39 +19,135 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.*;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.http.HttpHeaders;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.example.demo.controllers.AppointmentController;
+import com.example.demo.controllers.RecurringAppointmentController;
 import com.example.demo.repositories.*;
 import com.example.demo.entities.*;
+import com.example.demo.dto.AppointmentView;
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.BookedSlot;
+import com.example.demo.dto.RecurringAppointmentView;
+import com.example.demo.services.AppointmentChangeFeed;
+import com.example.demo.services.AppointmentChanges;
+import com.example.demo.services.AppointmentExporter;
+import com.example.demo.services.BookingLocks;
+import com.example.demo.services.CollectionVersions;
+import com.example.demo.services.RoomUtilization;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 @WebMvcTest(AppointmentController.class)
+@Import({BookingLocks.class, CollectionVersions.class})
 class AppointmentControllerUnitTest{
 
     @MockBean
     private AppointmentRepository appointmentRepository;
 
+    @MockBean
+    private RoomRepository roomRepository;
+
+    @MockBean
+    private DoctorRepository doctorRepository;
+
+    @MockBean
+    private PatientRepository patientRepository;
+
+    @MockBean
+    private PlatformTransactionManager transactionManager;
+
+    @MockBean
+    private AppointmentExporter appointmentExporter;
+
+    @MockBean
+    private RoomUtilization roomUtilization;
+
+    @MockBean
+    private AppointmentChanges appointmentChanges;
+
+    @MockBean
+    private AppointmentChangeFeed appointmentChangeFeed;
+
+    @MockBean
+    private AppointmentChangeRepository appointmentChangeRepository;
+
+    @MockBean
+    private RecurringAppointmentRepository recurringAppointmentRepository;
+
     @Autowired 
     private MockMvc mockMvc;
 
     @Autowired
     private ObjectMapper objectMapper;
 
+    @BeforeEach
+    void stubReferences(){
+        // Every room, doctor and patient the tests book against exists unless a test says otherwise
+        when(roomRepository.findByRoomNameForUpdate(anyString())).thenAnswer(invocation -> Optional.of(new Room(invocation.getArgument(0))));
+        when(roomRepository.findAllByRoomNameForUpdate(any())).thenAnswer(invocation -> {
+            List<Room> rooms = new ArrayList<>();
+            for (String roomName : invocation.<Collection<String>>getArgument(0)) {
+                rooms.add(new Room(roomName));
+            }
+            return rooms;
+        });
+        when(doctorRepository.findAllByIdForUpdate(any())).thenAnswer(invocation -> {
+            List<Doctor> doctors = new ArrayList<>();
+            for (Long id : invocation.<Collection<Long>>getArgument(0)) {
+                doctors.add(doctorWithId(id));
+            }
+            return doctors;
+        });
+        when(patientRepository.findAllByIdForUpdate(any())).thenAnswer(invocation -> {
+            List<Patient> patients = new ArrayList<>();
+            for (Long id : invocation.<Collection<Long>>getArgument(0)) {
+                patients.add(patientWithId(id));
+            }
+            return patients;
+        });
+        when(doctorRepository.getReferenceById(anyLong())).thenAnswer(invocation -> doctorWithId(invocation.getArgument(0)));
+        when(patientRepository.getReferenceById(anyLong())).thenAnswer(invocation -> patientWithId(invocation.getArgument(0)));
+    }
+
+    private static Doctor doctorWithId(long id){
+        Doctor doctor = new Doctor();
+        doctor.setId(id);
+        return doctor;
+    }
+
+    private static Patient patientWithId(long id){
+        Patient patient = new Patient();
+        patient.setId(id);
+        return patient;
+    }
+
     @Test
     void shouldCreateAppointment() throws Exception {
         
@@ -56,12 +160,18 @@ class AppointmentControllerUnitTest{
         LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
         LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
 
+        doctor.setId(1);
+        patient.setId(1);
+
         Appointment appointment = new Appointment(patient, doctor, room, startsAt, finishesAt);
 
+        when(appointmentRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
         mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(appointment)))
                 .andExpect(status().isOk());
-                
+
+        verify(roomUtilization, times(1)).booked(any());
+        verify(appointmentChanges, times(1)).created(any());
     }
 
     @Test
@@ -84,6 +194,32 @@ class AppointmentControllerUnitTest{
 
     }
 
+    @Test
+    void shouldNotCreateAppointmentLongerThanADay() throws Exception {
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        patient.setId(1);
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        doctor.setId(1);
+        Room room = new Room("Dermatology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("19:31 25/04/2023", formatter);
+
+        Appointment appointment = new Appointment(patient, doctor, room, startsAt, finishesAt);
+
+        mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(appointment)))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/appointments/batch").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Collections.singletonList(appointment))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(400));
+        verify(appointmentRepository, never()).save(any(Appointment.class));
+        verify(appointmentRepository, never()).saveAll(any());
+    }
+
     @Test
     void shouldCreateOneAppointmentOutOfTwoConflictDate() throws Exception{
         Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
@@ -97,6 +233,11 @@ class AppointmentControllerUnitTest{
         LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
         LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
 
+        doctor.setId(1);
+        patient.setId(1);
+        doctor2.setId(2);
+        patient2.setId(2);
+
         Appointment appointment = new Appointment(patient, doctor, room, startsAt, finishesAt);
         Appointment appointment2 = new Appointment(patient2, doctor2, room, startsAt, finishesAt);
         
@@ -108,10 +249,7 @@ class AppointmentControllerUnitTest{
 
 
 
-        List<Appointment> appointments = new ArrayList<Appointment>();
-        appointments.add(appointment);
-        
-        when(appointmentRepository.findAll()).thenReturn(appointments);
+        when(appointmentRepository.existsConflicting("Dermatology", 2L, 2L, startsAt, finishesAt)).thenReturn(true);
         mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(appointment2)))
                 .andExpect(status().isNotAcceptable());
@@ -134,6 +272,8 @@ class AppointmentControllerUnitTest{
         LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
         LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
 
+        doctor.setId(1);
+        patient.setId(1);
         doctor2.setId(2);
         patient2.setId(2);
 
@@ -147,10 +287,7 @@ class AppointmentControllerUnitTest{
 
 
 
-        List<Appointment> appointments = new ArrayList<Appointment>();
-        appointments.add(appointment);
-        
-        when(appointmentRepository.findAll()).thenReturn(appointments);
+        when(appointmentRepository.existsConflicting("Dermatology", 2L, 2L, startsAt, finishesAt)).thenReturn(true);
         mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(appointment2)))
                 .andExpect(status().isOk());
@@ -158,10 +295,190 @@ class AppointmentControllerUnitTest{
 
     }
     
+    @Test
+    void shouldNotCreateAppointmentWhenDoctorIsBusyInAnotherRoom() throws Exception {
+        Patient patient = new Patient("Paulino", "Antunez", 37, "p.antunez@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        doctor.setId(1);
+        patient.setId(2);
+
+        Appointment appointment = new Appointment(patient, doctor, room, startsAt, finishesAt);
+
+        when(appointmentRepository.existsConflicting("Oncology", 1L, 2L, startsAt, finishesAt)).thenReturn(true);
+        mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(appointment)))
+                .andExpect(status().isNotAcceptable());
+    }
+
+    @Test
+    void shouldNotCreateAppointmentInUnknownRoom() throws Exception {
+        Patient patient = new Patient("Paulino", "Antunez", 37, "p.antunez@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Radiology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        doctor.setId(1);
+        patient.setId(2);
+
+        Appointment appointment = new Appointment(patient, doctor, room, startsAt, finishesAt);
+
+        doReturn(Optional.empty()).when(roomRepository).findByRoomNameForUpdate("Radiology");
+        mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(appointment)))
+                .andExpect(status().isBadRequest());
+
+        verify(appointmentRepository, times(0)).save(any());
+    }
+
+    @Test
+    void shouldNotCreateAppointmentWithoutDoctorAndPatientIds() throws Exception {
+        Patient patient = new Patient("Paulino", "Antunez", 37, "p.antunez@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        Appointment appointment = new Appointment(patient, doctor, room, startsAt, finishesAt);
+
+        mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(appointment)))
+                .andExpect(status().isBadRequest());
+
+        verify(appointmentRepository, times(0)).save(any());
+    }
+
+    @Test
+    void shouldNotCreateAppointmentForUnknownDoctor() throws Exception {
+        Patient patient = new Patient("Paulino", "Antunez", 37, "p.antunez@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        doctor.setId(99);
+        patient.setId(2);
+
+        Appointment appointment = new Appointment(patient, doctor, room, startsAt, finishesAt);
+
+        when(appointmentRepository.save(any())).thenThrow(new DataIntegrityViolationException("FK_APPOINTMENT_DOCTOR"));
+        mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(appointment)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldRejectBatchItemsWithUnknownReferences() throws Exception {
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Doctor unknownDoctor = new Doctor ("Miren", "Iniesta", 24, "m.iniesta@hospital.accwe");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        doctor.setId(1);
+        unknownDoctor.setId(99);
+        patient.setId(1);
+
+        List<Appointment> appointments = new ArrayList<Appointment>();
+        appointments.add(new Appointment(patient, doctor, new Room("Dermatology"), startsAt, finishesAt));
+        appointments.add(new Appointment(patient, unknownDoctor, new Room("Dermatology"), finishesAt, finishesAt.plusHours(1)));
+        appointments.add(new Appointment(patient, doctor, new Room("Radiology"), finishesAt, finishesAt.plusHours(1)));
+
+        doReturn(Collections.singletonList(doctorWithId(1L))).when(doctorRepository).findAllByIdForUpdate(any());
+        doReturn(Collections.singletonList(new Room("Dermatology"))).when(roomRepository).findAllByRoomNameForUpdate(any());
+        when(appointmentRepository.saveAll(any())).thenAnswer(invocation -> new ArrayList<>(invocation.getArgument(0)));
+        mockMvc.perform(post("/api/appointments/batch").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(appointments)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(200))
+                .andExpect(jsonPath("$[1].status").value(400))
+                .andExpect(jsonPath("$[2].status").value(400));
+    }
+
+    @Test
+    void shouldRejectBatchItemsWithoutTimesOnTheirOwn() throws Exception {
+        String appointment = "{\"patient\":{\"id\":1},\"doctor\":{\"id\":1},\"room\":{\"roomName\":\"Dermatology\"},"
+                + "\"startsAt\":\"19:30 24/04/2023\",\"finishesAt\":\"20:30 24/04/2023\"}";
+        String withoutFinish = "{\"patient\":{\"id\":1},\"doctor\":{\"id\":1},\"room\":{\"roomName\":\"Dermatology\"},"
+                + "\"startsAt\":\"19:30 25/04/2023\"}";
+        String withoutStart = "{\"patient\":{\"id\":1},\"doctor\":{\"id\":1},\"room\":{\"roomName\":\"Dermatology\"},"
+                + "\"finishesAt\":\"20:30 26/04/2023\"}";
+
+        doReturn(Collections.singletonList(new Room("Dermatology"))).when(roomRepository).findAllByRoomNameForUpdate(any());
+        doReturn(Collections.singletonList(doctorWithId(1L))).when(doctorRepository).findAllByIdForUpdate(any());
+        doReturn(Collections.singletonList(patientWithId(1L))).when(patientRepository).findAllByIdForUpdate(any());
+        when(appointmentRepository.saveAll(any())).thenAnswer(invocation -> new ArrayList<>(invocation.getArgument(0)));
+        mockMvc.perform(post("/api/appointments/batch").contentType(MediaType.APPLICATION_JSON)
+                .content("[" + withoutFinish + ", null, " + appointment + ", " + withoutStart + "]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(400))
+                .andExpect(jsonPath("$[1].status").value(400))
+                .andExpect(jsonPath("$[1].index").value(1))
+                .andExpect(jsonPath("$[2].status").value(200))
+                .andExpect(jsonPath("$[3].status").value(400));
+
+        // A single booking without times is a 400 as well, not a 500
+        mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON).content(withoutFinish))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldCreateAppointmentsInBatchReportingEachItem() throws Exception {
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Patient patient2 = new Patient("Paulino", "Antunez", 37, "p.antunez@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Doctor doctor2 = new Doctor ("Miren", "Iniesta", 24, "m.iniesta@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        doctor.setId(1);
+        patient.setId(1);
+        doctor2.setId(2);
+        patient2.setId(2);
+
+        List<Appointment> appointments = new ArrayList<Appointment>();
+        appointments.add(new Appointment(patient, doctor, room, finishesAt, startsAt));
+        appointments.add(new Appointment(patient, doctor, room, startsAt, finishesAt));
+        appointments.add(new Appointment(patient2, doctor2, room, startsAt.plusMinutes(30), finishesAt.plusMinutes(30)));
+
+        when(appointmentRepository.saveAll(any())).thenAnswer(invocation -> new ArrayList<>(invocation.getArgument(0)));
+        mockMvc.perform(post("/api/appointments/batch").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(appointments)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(400))
+                .andExpect(jsonPath("$[1].status").value(200))
+                .andExpect(jsonPath("$[2].status").value(406));
+
+        verify(appointmentRepository, times(1)).saveAll(any());
+    }
+
     @Test
     void shouldGetNoAppointments() throws Exception{
         List<Appointment> appointments = new ArrayList<Appointment>();
-        when(appointmentRepository.findAll()).thenReturn(appointments);
+        when(appointmentRepository.findAllViews()).thenReturn(appointments.stream().map(AppointmentView::of).collect(Collectors.toList()));
         mockMvc.perform(get("/api/appointments"))
                 .andExpect(status().isNoContent());
                 
@@ -190,12 +507,103 @@ class AppointmentControllerUnitTest{
         appointments.add(appointment);
         appointments.add(appointment2);
 
-        when(appointmentRepository.findAll()).thenReturn(appointments);
+        when(appointmentRepository.findAllViews()).thenReturn(appointments.stream().map(AppointmentView::of).collect(Collectors.toList()));
         mockMvc.perform(get("/api/appointments"))
-                .andExpect(status().isOk());
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(appointments)));
                 
     }
 
+    @Test
+    void shouldGetAppointmentsPageWithNextCursor() throws Exception{
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt= LocalDateTime.parse("19:00 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:00 24/04/2023", formatter);
+
+        Appointment appointment = new Appointment(patient, doctor, room, startsAt, finishesAt);
+        appointment.setId(21);
+
+        List<Appointment> appointments = new ArrayList<Appointment>();
+        appointments.add(appointment);
+
+        when(appointmentRepository.findViewsByIdGreaterThan(20, PageRequest.of(0, 1))).thenReturn(appointments.stream().map(AppointmentView::of).collect(Collectors.toList()));
+        mockMvc.perform(get("/api/appointments").param("after", "20").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "21"))
+                .andExpect(jsonPath("$[0].id").value(21));
+    }
+
+    @Test
+    void shouldExportAppointmentsAsNdjson() throws Exception{
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write("{\"id\":1}\n{\"id\":2}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(appointmentExporter).writeNdjson(any());
+
+        MvcResult result = mockMvc.perform(get("/api/appointments/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string("{\"id\":1}\n{\"id\":2}\n"));
+    }
+
+    @Test
+    void shouldSubscribeToChangesFromTheLastEventId() throws Exception{
+        when(appointmentChangeFeed.subscribe(42L)).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/appointments/stream").header("Last-Event-ID", "42"))
+                .andExpect(request().asyncStarted());
+
+        verify(appointmentChangeFeed, times(1)).subscribe(42L);
+    }
+
+    @Test
+    void shouldGetChangesSinceAVersionWithTombstones() throws Exception{
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Appointment appointment = new Appointment(patient, doctor, new Room("Dermatology"), LocalDateTime.now(), LocalDateTime.now().plusHours(1));
+        appointment.setId(9);
+
+        AppointmentChange created = new AppointmentChange(AppointmentChange.Type.CREATED, appointment, LocalDateTime.now());
+        AppointmentChange deleted = new AppointmentChange(AppointmentChange.Type.DELETED, appointment, LocalDateTime.now());
+        ReflectionTestUtils.setField(created, "id", 11L);
+        ReflectionTestUtils.setField(deleted, "id", 12L);
+
+        when(appointmentChangeFeed.settledId()).thenReturn(12L);
+        when(appointmentChangeRepository.findFirstId()).thenReturn(1L);
+        when(appointmentChangeRepository.findBetween(10, 12, PageRequest.of(0, 2))).thenReturn(Arrays.asList(created, deleted));
+
+        mockMvc.perform(get("/api/appointments/changes").param("since", "10").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "12"))
+                .andExpect(jsonPath("$[0].type").value("CREATED"))
+                .andExpect(jsonPath("$[1].type").value("DELETED"))
+                .andExpect(jsonPath("$[1].appointmentId").value(9));
+
+        mockMvc.perform(get("/api/appointments/changes").param("since", "12"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void shouldAskForAFullResyncWhenChangesWerePurged() throws Exception{
+        when(appointmentChangeFeed.settledId()).thenReturn(40L);
+        when(appointmentChangeRepository.findFirstId()).thenReturn(30L);
+
+        mockMvc.perform(get("/api/appointments/changes").param("since", "28"))
+                .andExpect(status().isGone());
+        mockMvc.perform(get("/api/appointments/changes").param("since", "-1"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void shouldGetAppointmentById() throws Exception{
         Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
@@ -218,7 +626,7 @@ class AppointmentControllerUnitTest{
         assertThat(opt.get().getId()).isEqualTo(appointment.getId());
         assertThat(appointment.getId()).isEqualTo(1);
 
-        when(appointmentRepository.findById(appointment.getId())).thenReturn(opt);
+        when(appointmentRepository.findViewById(appointment.getId())).thenReturn(opt.map(AppointmentView::of));
         mockMvc.perform(get("/api/appointments/" + appointment.getId()))
                 .andExpect(status().isOk());
                 
@@ -257,6 +665,10 @@ class AppointmentControllerUnitTest{
         when(appointmentRepository.findById(appointment.getId())).thenReturn(opt);
         mockMvc.perform(delete("/api/appointments/" + appointment.getId()))
                 .andExpect(status().isOk());
+
+        verify(appointmentRepository, times(1)).deleteById(appointment.getId());
+        verify(roomUtilization, times(1)).released(appointment);
+        verify(appointmentChanges, times(1)).deleted(appointment);
                 
     }
 
@@ -274,5 +686,258 @@ class AppointmentControllerUnitTest{
                 .andExpect(status().isOk());
                 
     }
+
+    @Test
+    void shouldNotBookOverAnOccurrenceOfARecurringAppointment() throws Exception {
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        patient.setId(1);
+        doctor.setId(1);
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime startsAt = LocalDateTime.parse("19:00 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("19:45 24/04/2023", formatter);
+        // Weekly physiotherapy in the same room from the 3rd: the 24th is its fourth session
+        BookedSeries weekly = new BookedSeries("Dermatology", 3L, 3L,
+                LocalDateTime.parse("19:30 03/04/2023", formatter), LocalDateTime.parse("20:30 03/04/2023", formatter), 7, 10);
+
+        when(recurringAppointmentRepository.findBookedSeries(any(), any(), any(), any(), any())).thenReturn(Collections.singletonList(weekly));
+        mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new Appointment(patient, doctor, new Room("Dermatology"), startsAt, finishesAt))))
+                .andExpect(status().isNotAcceptable());
+
+        // The day after is free
+        mockMvc.perform(post("/api/appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new Appointment(patient, doctor, new Room("Dermatology"),
+                        startsAt.plusDays(1), finishesAt.plusDays(1)))))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void shouldAnswerNotModifiedUntilAppointmentsChange() throws Exception{
+        List<Appointment> appointments = new ArrayList<Appointment>();
+        appointments.add(new Appointment(null, null, new Room("Dermatology"), LocalDateTime.now(), LocalDateTime.now().plusHours(1)));
+        when(appointmentRepository.findAllViews()).thenReturn(appointments.stream().map(AppointmentView::of).collect(Collectors.toList()));
+
+        String etag = mockMvc.perform(get("/api/appointments"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/api/appointments").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(appointmentRepository, times(1)).findAllViews();
+
+        mockMvc.perform(delete("/api/appointments"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/appointments").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(etag)));
+    }
 }
 
+@WebMvcTest(RecurringAppointmentController.class)
+@Import({BookingLocks.class, CollectionVersions.class})
+class RecurringAppointmentControllerUnitTest {
+
+    @MockBean
+    private RecurringAppointmentRepository recurringAppointmentRepository;
+
+    @MockBean
+    private AppointmentRepository appointmentRepository;
+
+    @MockBean
+    private RoomRepository roomRepository;
+
+    @MockBean
+    private DoctorRepository doctorRepository;
+
+    @MockBean
+    private PatientRepository patientRepository;
+
+    @MockBean
+    private PlatformTransactionManager transactionManager;
+
+    @MockBean
+    private AppointmentChanges appointmentChanges;
+
+    @Autowired
+    private CollectionVersions collectionVersions;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    @BeforeEach
+    void stubReferences(){
+        when(roomRepository.findByRoomNameForUpdate(anyString())).thenAnswer(invocation -> Optional.of(new Room(invocation.getArgument(0))));
+        when(doctorRepository.findAllByIdForUpdate(any())).thenAnswer(invocation -> Collections.singletonList(new Doctor()));
+        when(patientRepository.findAllByIdForUpdate(any())).thenAnswer(invocation -> Collections.singletonList(new Patient()));
+        when(doctorRepository.getReferenceById(anyLong())).thenAnswer(invocation -> {
+            Doctor doctor = new Doctor();
+            doctor.setId(invocation.getArgument(0));
+            return doctor;
+        });
+        when(patientRepository.getReferenceById(anyLong())).thenAnswer(invocation -> {
+            Patient patient = new Patient();
+            patient.setId(invocation.getArgument(0));
+            return patient;
+        });
+        when(recurringAppointmentRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    // Ten weekly one-hour sessions from Monday 03/04/2023 at 19:30
+    private RecurringAppointment weeklySeries(int occurrences){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        patient.setId(1);
+        doctor.setId(1);
+        return new RecurringAppointment(patient, doctor, new Room("Physiotherapy"),
+                LocalDateTime.parse("19:30 03/04/2023", formatter), LocalDateTime.parse("20:30 03/04/2023", formatter), 7, occurrences);
+    }
+
+    @Test
+    void shouldGetRecurringAppointmentsAndOneById() throws Exception {
+        RecurringAppointmentView weekly = new RecurringAppointmentView(5, 1L, "Jose Luis", "Olaya", 37, "j.olaya@email.com",
+                1L, "Perla", "Amalia", 24, "p.amalia@hospital.accwe", "Physiotherapy",
+                LocalDateTime.parse("19:30 03/04/2023", formatter), LocalDateTime.parse("20:30 03/04/2023", formatter),
+                7, 10, LocalDateTime.parse("20:30 05/06/2023", formatter));
+        when(recurringAppointmentRepository.findAllViews()).thenReturn(Collections.singletonList(weekly));
+        when(recurringAppointmentRepository.findViewById(5L)).thenReturn(Optional.of(weekly));
+        when(recurringAppointmentRepository.findViewById(6L)).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/recurring-appointments"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].room.roomName").value("Physiotherapy"));
+        mockMvc.perform(get("/api/recurring-appointments/{id}", 5))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.patient.firstName").value("Jose Luis"))
+                .andExpect(jsonPath("$.repeatEveryDays").value(7))
+                .andExpect(jsonPath("$.lastFinishesAt").value("20:30 05/06/2023"));
+        mockMvc.perform(get("/api/recurring-appointments/{id}", 6))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldCreateARecurringAppointmentAsOneRow() throws Exception {
+        String etag = collectionVersions.etag(CollectionVersions.APPOINTMENTS);
+
+        mockMvc.perform(post("/api/recurring-appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(weeklySeries(10))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.repeatEveryDays").value(7))
+                .andExpect(jsonPath("$.occurrences").value(10));
+
+        verify(recurringAppointmentRepository, times(1)).save(any());
+        verify(appointmentRepository, times(0)).save(any());
+        verify(appointmentChanges, times(1)).seriesCreated(any());
+        assertThat(collectionVersions.etag(CollectionVersions.APPOINTMENTS)).isNotEqualTo(etag);
+    }
+
+    @Test
+    void shouldNotCreateASeriesOverAStoredAppointment() throws Exception {
+        // Falls on the sixth session, 08/05/2023
+        BookedSlot stored = new BookedSlot("Physiotherapy", 2L, 2L,
+                LocalDateTime.parse("20:00 08/05/2023", formatter), LocalDateTime.parse("21:00 08/05/2023", formatter));
+        when(appointmentRepository.findBookedSlots(any(), any(), any(), any(), any())).thenReturn(Collections.singletonList(stored));
+
+        mockMvc.perform(post("/api/recurring-appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(weeklySeries(10))))
+                .andExpect(status().isNotAcceptable());
+
+        verify(recurringAppointmentRepository, times(0)).save(any());
+    }
+
+    @Test
+    void shouldNotCreateASeriesOverAnotherSeries() throws Exception {
+        // Every other Monday from 17/04/2023, 20:00 to 20:30
+        BookedSeries biweekly = new BookedSeries("Physiotherapy", 2L, 2L,
+                LocalDateTime.parse("20:00 17/04/2023", formatter), LocalDateTime.parse("20:30 17/04/2023", formatter), 14, 5);
+        when(recurringAppointmentRepository.findBookedSeries(any(), any(), any(), any(), any())).thenReturn(Collections.singletonList(biweekly));
+
+        mockMvc.perform(post("/api/recurring-appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(weeklySeries(10))))
+                .andExpect(status().isNotAcceptable());
+    }
+
+    @Test
+    void shouldNotCreateAnInvalidSeries() throws Exception {
+        RecurringAppointment overlapsItself = weeklySeries(10);
+        overlapsItself.setFinishesAt(overlapsItself.getStartsAt().plusDays(8));
+        mockMvc.perform(post("/api/recurring-appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(overlapsItself)))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(post("/api/recurring-appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(weeklySeries(0))))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(post("/api/recurring-appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(weeklySeries(521))))
+                .andExpect(status().isBadRequest());
+
+        verify(recurringAppointmentRepository, times(0)).save(any());
+    }
+
+    @Test
+    void shouldExpandOnlyTheOccurrencesWithinTheWindow() throws Exception {
+        BookedSeries weekly = new BookedSeries("Physiotherapy", 1L, 1L,
+                LocalDateTime.parse("19:30 03/04/2023", formatter), LocalDateTime.parse("20:30 03/04/2023", formatter), 7, 10);
+        when(recurringAppointmentRepository.findSeriesById(4L)).thenReturn(Optional.of(weekly));
+
+        mockMvc.perform(get("/api/recurring-appointments/{id}/occurrences", 4)
+                .param("from", "20:00 17/04/2023")
+                .param("to", "19:30 01/05/2023"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].startsAt").value("19:30 17/04/2023"))
+                .andExpect(jsonPath("$[1].startsAt").value("19:30 24/04/2023"));
+    }
+
+    @Test
+    void shouldNotGetOccurrencesOfAnUnknownSeries() throws Exception {
+        when(recurringAppointmentRepository.findSeriesById(4L)).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/recurring-appointments/{id}/occurrences", 4)
+                .param("from", "20:00 17/04/2023")
+                .param("to", "19:30 01/05/2023"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldDeleteARecurringAppointment() throws Exception {
+        RecurringAppointment series = weeklySeries(10);
+        when(recurringAppointmentRepository.findById(4L)).thenReturn(Optional.of(series));
+        String etag = collectionVersions.etag(CollectionVersions.APPOINTMENTS);
+
+        mockMvc.perform(delete("/api/recurring-appointments/{id}", 4))
+                .andExpect(status().isOk());
+        mockMvc.perform(delete("/api/recurring-appointments/{id}", 5))
+                .andExpect(status().isNotFound());
+
+        verify(recurringAppointmentRepository, times(1)).deleteById(4L);
+        verify(appointmentChanges, times(1)).seriesDeleted(series);
+        assertThat(collectionVersions.etag(CollectionVersions.APPOINTMENTS)).isNotEqualTo(etag);
+    }
+
+    @Test
+    void shouldNotRecordARejectedSeries() throws Exception {
+        String etag = collectionVersions.etag(CollectionVersions.APPOINTMENTS);
+        when(roomRepository.findByRoomNameForUpdate(anyString())).thenReturn(Optional.empty());
+
+        mockMvc.perform(post("/api/recurring-appointment").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(weeklySeries(10))))
+                .andExpect(status().isBadRequest());
+
+        verify(appointmentChanges, never()).seriesCreated(any());
+        assertThat(collectionVersions.etag(CollectionVersions.APPOINTMENTS)).isEqualTo(etag);
+    }
+}
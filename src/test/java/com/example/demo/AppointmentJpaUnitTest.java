@@ -1,23 +1,49 @@
 package com.example.demo;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.time.format.DateTimeFormatter;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import javax.persistence.PersistenceException;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
 
+import com.example.demo.dto.AppointmentView;
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.BookedSlot;
+import com.example.demo.dto.DayUsage;
+import com.example.demo.dto.TimeSlot;
 import com.example.demo.repositories.*;
+import com.example.demo.services.AppointmentExporter;
+import com.example.demo.services.RoomUtilization;
 import com.example.demo.entities.*;
 
 
 @DataJpaTest
 @AutoConfigureTestDatabase(replace=Replace.NONE)
+@Import({AppointmentExporter.class, RoomUtilization.class})
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
 class AppointmentJpaUnitTest {
 
     @Autowired
@@ -35,6 +61,15 @@ class AppointmentJpaUnitTest {
     @Autowired
     RoomRepository repoRooms;
 
+    @Autowired
+    RecurringAppointmentRepository repoRecurringAppointments;
+
+    @Autowired
+    AppointmentExporter appointmentExporter;
+
+    @Autowired
+    RoomUtilization roomUtilization;
+
     @Test
     void should_find_no_appointments_if_repository_is_empty(){
         Iterable<Appointment> appointments = repoAppointments.findAll();
@@ -258,4 +293,553 @@ class AppointmentJpaUnitTest {
         assertThat(appointments).isEmpty();
     }
     
+    @Test
+    void should_find_conflicting_appointment_by_room_doctor_or_patient(){
+        Patient patient1 = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Patient patient2 = new Patient("Mariela", "Eric", 42, "m.eric@email.com");
+        Doctor doctor1 = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Doctor doctor2 = new Doctor ("Reyna", "Cayetana", 28, "r.cayetana@hospital.accwe");
+        Room room1 = new Room("Dermatology");
+        Room room2 = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        entityManager.persist(patient1);
+        entityManager.persist(patient2);
+        entityManager.persist(doctor1);
+        entityManager.persist(doctor2);
+        entityManager.persist(room1);
+        entityManager.persist(room2);
+        entityManager.persist(new Appointment(patient1, doctor1, room1, startsAt, finishesAt));
+
+        long doctor1Id = doctor1.getId();
+        long doctor2Id = doctor2.getId();
+        long patient1Id = patient1.getId();
+        long patient2Id = patient2.getId();
+
+        assertThat(repoAppointments.existsConflicting("Dermatology", doctor2Id, patient2Id, startsAt, finishesAt)).isTrue();
+        assertThat(repoAppointments.existsConflicting("Oncology", doctor1Id, patient2Id, startsAt, finishesAt)).isTrue();
+        assertThat(repoAppointments.existsConflicting("Oncology", doctor2Id, patient1Id, startsAt, finishesAt)).isTrue();
+        assertThat(repoAppointments.existsConflicting("Oncology", doctor2Id, patient2Id, startsAt, finishesAt)).isFalse();
+
+        assertThat(repoAppointments.existsConflicting("Dermatology", doctor1Id, patient1Id, startsAt.minusMinutes(30), startsAt.plusMinutes(1))).isTrue();
+        assertThat(repoAppointments.existsConflicting("Dermatology", doctor1Id, patient1Id, startsAt.minusHours(1), finishesAt.plusHours(1))).isTrue();
+        assertThat(repoAppointments.existsConflicting("Dermatology", doctor1Id, patient1Id, finishesAt, finishesAt.plusHours(1))).isFalse();
+        assertThat(repoAppointments.existsConflicting("Dermatology", doctor1Id, patient1Id, startsAt.minusHours(1), startsAt)).isFalse();
+    }
+
+    @Test
+    void should_check_room_doctor_and_patient_conflicts_in_a_single_statement(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        LocalDateTime startsAt = LocalDateTime.now();
+        LocalDateTime finishesAt = startsAt.plusHours(1);
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        entityManager.persist(new Appointment(patient, doctor, room, startsAt, finishesAt));
+        entityManager.flush();
+
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        repoAppointments.existsConflicting("Oncology", doctor.getId(), patient.getId(), startsAt, finishesAt);
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    void should_probe_each_resource_on_its_own_index_in_bounded_time(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Patient otherPatient = new Patient("Paulino", "Antonio", 37, "p.antonio@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Doctor otherDoctor = new Doctor ("Miren", "Iniesta", 24, "m.iniesta@hospital.accwe");
+        Room room = new Room("Dermatology");
+        Room otherRoom = new Room("Oncology");
+        entityManager.persist(patient);
+        entityManager.persist(otherPatient);
+        entityManager.persist(doctor);
+        entityManager.persist(otherDoctor);
+        entityManager.persist(room);
+        entityManager.persist(otherRoom);
+
+        // A long history of half-hour appointments every two hours for each of the probed room,
+        // doctor and patient, each shared with none of the other two
+        int history = 1000;
+        LocalDateTime first = LocalDateTime.of(2023, 4, 3, 8, 0);
+        for (int i = 0; i < history; i++) {
+            LocalDateTime startsAt = first.plusHours(2L * i);
+            entityManager.persist(new Appointment(otherPatient, otherDoctor, room, startsAt, startsAt.plusMinutes(30)));
+            entityManager.persist(new Appointment(otherPatient, doctor, otherRoom, startsAt, startsAt.plusMinutes(30)));
+            entityManager.persist(new Appointment(patient, otherDoctor, otherRoom, startsAt, startsAt.plusMinutes(30)));
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        // A free hour in the middle of the history: the appointments starting within the day before
+        // it are the only ones that could still be running
+        LocalDateTime startsAt = first.plusHours(history + 1);
+        LocalDateTime finishesAt = startsAt.plusHours(1);
+        long startingWithinADayBefore = Appointment.MAX_DURATION.toHours() / 2;
+
+        String plan = (String) entityManager.getEntityManager().createNativeQuery("explain analyze " + AppointmentRepository.CONFLICT_PROBE)
+                .setParameter("roomName", "Dermatology")
+                .setParameter("doctorId", doctor.getId())
+                .setParameter("patientId", patient.getId())
+                .setParameter("earliestStart", startsAt.minus(Appointment.MAX_DURATION))
+                .setParameter("startsAt", startsAt)
+                .setParameter("finishesAt", finishesAt)
+                .getSingleResult();
+
+        assertThat(plan).contains("IDX_APPOINTMENT_ROOM_STARTS_FINISHES", "IDX_APPOINTMENT_DOCTOR_STARTS_AT", "IDX_APPOINTMENT_PATIENT_STARTS_AT")
+                .doesNotContainIgnoringCase("tableScan");
+        // Every probe reads a day of its own resource's rows, and the index entries either side of
+        // that range, not its 1000-row history
+        Matcher scanCount = Pattern.compile("scanCount: (\\d+)").matcher(plan);
+        int probes = 0;
+        while (scanCount.find()) {
+            assertThat(Long.parseLong(scanCount.group(1))).isLessThanOrEqualTo(startingWithinADayBefore + 2);
+            probes++;
+        }
+        assertThat(probes).isEqualTo(3);
+        assertThat(repoAppointments.existsConflicting("Dermatology", doctor.getId(), patient.getId(), startsAt, finishesAt)).isFalse();
+        assertThat(repoAppointments.existsConflicting("Dermatology", doctor.getId(), patient.getId(), startsAt.minusMinutes(45), finishesAt)).isTrue();
+
+        // Timed against probing the first hour of the history, where there is nothing before it:
+        // a probe at the end of a long history must not cost many times more
+        long early = timeProbes(room.getRoomName(), doctor.getId(), patient.getId(), first.minusHours(1));
+        long late = timeProbes(room.getRoomName(), doctor.getId(), patient.getId(), first.plusHours(2L * history));
+        assertThat(late).isLessThan(early * 10);
+    }
+
+    private long timeProbes(String roomName, long doctorId, long patientId, LocalDateTime startsAt){
+        for (int i = 0; i < 200; i++) {
+            repoAppointments.existsConflicting(roomName, doctorId, patientId, startsAt, startsAt.plusMinutes(30));
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < 500; i++) {
+            repoAppointments.existsConflicting(roomName, doctorId, patientId, startsAt, startsAt.plusMinutes(30));
+        }
+        return System.nanoTime() - started;
+    }
+
+    @Test
+    void should_have_the_range_and_email_indexes_from_the_migrations(){
+        List<Object> indexes = entityManager.getEntityManager()
+                .createNativeQuery("select lower(index_name) from information_schema.indexes")
+                .getResultList();
+
+        assertThat(indexes).contains("idx_appointment_room_starts_finishes", "idx_appointment_doctor_starts_at",
+                "idx_appointment_patient_starts_at", "idx_doctors_email", "idx_patient_email");
+        assertThat(indexes).doesNotContain("idx_appointment_room_starts_at");
+    }
+
+    @Test
+    void should_save_appointment_against_references_without_loading_them(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        entityManager.flush();
+        entityManager.clear();
+
+        LocalDateTime startsAt = LocalDateTime.now();
+        LocalDateTime finishesAt = startsAt.plusHours(1);
+
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        Appointment appointment = new Appointment(repoPatients.getReferenceById(patient.getId()),
+                repoDoctors.getReferenceById(doctor.getId()), entityManager.find(Room.class, "Dermatology"), startsAt, finishesAt);
+        repoAppointments.save(appointment);
+        entityManager.flush();
+
+        // Only the room is read; the patient and doctor are never selected nor merged
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(1);
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(1);
+        assertThat(statistics.getEntityUpdateCount()).isZero();
+    }
+
+    @Test
+    void should_load_appointments_with_their_patient_doctor_and_room_in_a_single_statement(){
+        LocalDateTime startsAt = LocalDateTime.now();
+
+        for (int i = 0; i < 3; i++) {
+            Patient patient = new Patient("Patient" + i, "Olaya", 37, "patient" + i + "@email.com");
+            Doctor doctor = new Doctor ("Doctor" + i, "Amalia", 24, "doctor" + i + "@hospital.accwe");
+            Room room = new Room("Room" + i);
+            entityManager.persist(patient);
+            entityManager.persist(doctor);
+            entityManager.persist(room);
+            entityManager.persist(new Appointment(patient, doctor, room, startsAt.plusHours(i), startsAt.plusHours(i + 1)));
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<Appointment> appointments = repoAppointments.findAll();
+        assertThat(appointments).hasSize(3);
+        assertThat(appointments).extracting(a -> a.getRoom().getRoomName()).containsExactlyInAnyOrder("Room0", "Room1", "Room2");
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        entityManager.clear();
+        statistics.clear();
+
+        assertThat(repoAppointments.findByIdGreaterThanOrderByIdAsc(0, PageRequest.of(0, 2))).hasSize(2);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        entityManager.clear();
+        statistics.clear();
+
+        assertThat(repoAppointments.findById(appointments.get(0).getId())).isPresent();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void should_read_appointment_views_without_managing_entities(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy"));
+        LocalDateTime finishesAt = startsAt.plusHours(1);
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        Appointment appointment = entityManager.persist(new Appointment(patient, doctor, room, startsAt, finishesAt));
+        entityManager.flush();
+        entityManager.clear();
+
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<AppointmentView> views = repoAppointments.findAllViews();
+        AppointmentView view = repoAppointments.findViewById(appointment.getId()).get();
+
+        assertThat(views).hasSize(1);
+        assertThat(view.getPatient().getEmail()).isEqualTo("j.olaya@email.com");
+        assertThat(view.getDoctor().getId()).isEqualTo(doctor.getId());
+        assertThat(view.getRoom().getRoomName()).isEqualTo("Dermatology");
+        assertThat(view.getStartsAt()).isEqualTo(startsAt);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+        assertThat(repoAppointments.findViewsByIdGreaterThan(appointment.getId(), PageRequest.of(0, 1))).isEmpty();
+    }
+
+    @Test
+    void should_find_booked_slots_of_the_given_resources_in_a_window(){
+        Patient patient1 = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Patient patient2 = new Patient("Mariela", "Eric", 42, "m.eric@email.com");
+        Doctor doctor1 = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Doctor doctor2 = new Doctor ("Reyna", "Cayetana", 28, "r.cayetana@hospital.accwe");
+        Room room1 = new Room("Dermatology");
+        Room room2 = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
+
+        entityManager.persist(patient1);
+        entityManager.persist(patient2);
+        entityManager.persist(doctor1);
+        entityManager.persist(doctor2);
+        entityManager.persist(room1);
+        entityManager.persist(room2);
+        entityManager.persist(new Appointment(patient1, doctor1, room1, startsAt, finishesAt));
+        entityManager.persist(new Appointment(patient2, doctor2, room2, startsAt, finishesAt));
+        entityManager.persist(new Appointment(patient2, doctor2, room2, startsAt.plusDays(1), finishesAt.plusDays(1)));
+
+        List<BookedSlot> slots = repoAppointments.findBookedSlots(Arrays.asList("Dermatology"),
+                Arrays.asList(0L), Arrays.asList(patient2.getId()), startsAt, finishesAt);
+
+        assertThat(slots).hasSize(2);
+        assertThat(slots).extracting(BookedSlot::getRoomName).containsExactlyInAnyOrder("Dermatology", "Oncology");
+        assertThat(slots).extracting(BookedSlot::getDoctorId).containsExactlyInAnyOrder(doctor1.getId(), doctor2.getId());
+    }
+
+    @Test
+    void should_find_the_slot_reaching_into_the_window_from_long_before_it(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime from = LocalDateTime.parse("09:00 24/04/2023", formatter);
+        LocalDateTime to = LocalDateTime.parse("11:00 24/04/2023", formatter);
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        entityManager.persist(new Appointment(patient, doctor, room, from.minusDays(2), from.minusDays(2).plusHours(1)));
+        entityManager.persist(new Appointment(patient, doctor, room, from.minusHours(11), from.plusHours(1)));
+
+        List<BookedSlot> slots = repoAppointments.findBookedSlots(Arrays.asList("Oncology"),
+                Arrays.asList(0L), Arrays.asList(patient.getId()), from, to);
+
+        assertThat(slots).extracting(BookedSlot::getStartsAt).containsExactly(from.minusHours(11));
+        assertThat(repoAppointments.findRoomBusySlots("Dermatology", from, to)).extracting(TimeSlot::getStartsAt)
+                .containsExactly(from.minusHours(11));
+        assertThat(repoAppointments.findDoctorBusySlots(doctor.getId(), from.plusHours(1), to)).isEmpty();
+        assertThat(repoAppointments.existsConflicting("Oncology", 0L, patient.getId(), from.plusMinutes(59), to)).isTrue();
+    }
+
+    @Test
+    void should_see_a_legacy_appointment_that_another_one_of_the_same_doctor_sits_inside(){
+        Patient patient1 = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Patient patient2 = new Patient("Mariela", "Eric", 42, "m.eric@email.com");
+        Doctor doctor = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Room room1 = new Room("Dermatology");
+        Room room2 = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime nine = LocalDateTime.parse("09:00 24/04/2023", formatter);
+
+        entityManager.persist(patient1);
+        entityManager.persist(patient2);
+        entityManager.persist(doctor);
+        entityManager.persist(room1);
+        entityManager.persist(room2);
+        // Booked before doctors were checked: 09:30-10:00 sits inside 09:00-12:00
+        entityManager.persist(new Appointment(patient1, doctor, room1, nine, nine.plusHours(3)));
+        entityManager.persist(new Appointment(patient2, doctor, room2, nine.plusMinutes(30), nine.plusHours(1)));
+
+        assertThat(repoAppointments.existsConflicting("Radiology", doctor.getId(), 0L, nine.plusHours(2), nine.plusMinutes(150))).isTrue();
+        assertThat(repoAppointments.findDoctorBusySlots(doctor.getId(), nine.plusHours(1), nine.plusHours(3)))
+                .extracting(TimeSlot::getStartsAt).containsExactly(nine);
+        assertThat(repoAppointments.findDoctorBusySlots(doctor.getId(), nine.plusMinutes(45), nine.plusHours(3)))
+                .extracting(TimeSlot::getStartsAt).containsExactly(nine, nine.plusMinutes(30));
+        assertThat(repoAppointments.findBookedSlots(Arrays.asList("Radiology"), Arrays.asList(doctor.getId()), Arrays.asList(0L),
+                nine.plusHours(2), nine.plusMinutes(150))).extracting(BookedSlot::getStartsAt).containsExactly(nine);
+    }
+
+    @Test
+    void should_refuse_to_store_an_appointment_longer_than_the_maximum(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Room room = new Room("Dermatology");
+        LocalDateTime startsAt = LocalDateTime.of(2023, 4, 24, 9, 0);
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        entityManager.persist(new Appointment(patient, doctor, room, startsAt, startsAt.plus(Appointment.MAX_DURATION)));
+        entityManager.flush();
+
+        assertThatThrownBy(() -> {
+            entityManager.persist(new Appointment(patient, doctor, room, startsAt.plusDays(2), startsAt.plusDays(2).plus(Appointment.MAX_DURATION).plusMinutes(1)));
+            entityManager.flush();
+        }).isInstanceOf(PersistenceException.class);
+    }
+
+    @Test
+    void should_store_a_recurring_appointment_as_one_row_and_find_it_by_its_span(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Room room = new Room("Physiotherapy");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        // Weekly for six months
+        RecurringAppointment series = repoRecurringAppointments.save(new RecurringAppointment(patient, doctor, room,
+                LocalDateTime.parse("19:30 03/04/2023", formatter), LocalDateTime.parse("20:30 03/04/2023", formatter), 7, 26));
+        entityManager.flush();
+
+        assertThat(repoRecurringAppointments.count()).isEqualTo(1);
+        assertThat(series.getLastFinishesAt()).isEqualTo(LocalDateTime.parse("20:30 25/09/2023", formatter));
+
+        // Found by any resource while the window is within its span, even between occurrences
+        List<BookedSeries> found = repoRecurringAppointments.findBookedSeries(Arrays.asList("Oncology"),
+                Arrays.asList(0L), Arrays.asList(patient.getId()),
+                LocalDateTime.parse("08:00 01/08/2023", formatter), LocalDateTime.parse("09:00 01/08/2023", formatter));
+        assertThat(found).hasSize(1);
+        assertThat(found.get(0).overlaps(LocalDateTime.parse("20:00 31/07/2023", formatter), LocalDateTime.parse("21:00 31/07/2023", formatter))).isTrue();
+
+        assertThat(repoRecurringAppointments.findRoomSeries("Physiotherapy",
+                LocalDateTime.parse("20:30 25/09/2023", formatter), LocalDateTime.parse("20:30 02/10/2023", formatter))).isEmpty();
+        assertThat(repoRecurringAppointments.findDoctorSeries(doctor.getId(),
+                LocalDateTime.parse("00:00 25/09/2023", formatter), LocalDateTime.parse("00:00 26/09/2023", formatter))).hasSize(1);
+        assertThat(repoRecurringAppointments.findViewById(series.getId()).get().getPatient().getEmail()).isEqualTo("j.olaya@email.com");
+        assertThat(repoRecurringAppointments.findPatientSeriesViewsStartedBy(patient.getId(),
+                LocalDateTime.parse("19:29 03/04/2023", formatter))).isEmpty();
+        assertThat(repoRecurringAppointments.findDoctorSeriesViews(doctor.getId(),
+                LocalDateTime.parse("00:00 25/09/2023", formatter), LocalDateTime.parse("00:00 26/09/2023", formatter))).hasSize(1);
+        assertThat(repoRecurringAppointments.findSeriesById(series.getId()).get()
+                .occurrencesBetween(LocalDateTime.parse("00:00 01/09/2023", formatter), LocalDateTime.parse("00:00 01/10/2023", formatter)))
+                .extracting(TimeSlot::getStartsAt)
+                .containsExactly(LocalDateTime.parse("19:30 04/09/2023", formatter), LocalDateTime.parse("19:30 11/09/2023", formatter),
+                        LocalDateTime.parse("19:30 18/09/2023", formatter), LocalDateTime.parse("19:30 25/09/2023", formatter));
+    }
+
+    @Test
+    void should_find_busy_slots_of_a_room_and_a_doctor_sorted_by_start(){
+        Patient patient1 = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Patient patient2 = new Patient("Mariela", "Eric", 42, "m.eric@email.com");
+        Doctor doctor1 = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Doctor doctor2 = new Doctor ("Reyna", "Cayetana", 28, "r.cayetana@hospital.accwe");
+        Room room1 = new Room("Dermatology");
+        Room room2 = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime from = LocalDateTime.parse("09:00 24/04/2023", formatter);
+        LocalDateTime to = LocalDateTime.parse("13:00 24/04/2023", formatter);
+
+        entityManager.persist(patient1);
+        entityManager.persist(patient2);
+        entityManager.persist(doctor1);
+        entityManager.persist(doctor2);
+        entityManager.persist(room1);
+        entityManager.persist(room2);
+        entityManager.persist(new Appointment(patient1, doctor1, room1, from.plusHours(2), from.plusHours(3)));
+        entityManager.persist(new Appointment(patient2, doctor2, room1, from.minusMinutes(30), from.plusMinutes(30)));
+        entityManager.persist(new Appointment(patient2, doctor1, room2, from.plusHours(1), from.plusHours(2)));
+        entityManager.persist(new Appointment(patient1, doctor1, room1, to, to.plusHours(1)));
+
+        List<TimeSlot> roomSlots = repoAppointments.findRoomBusySlots("Dermatology", from, to);
+        List<TimeSlot> doctorSlots = repoAppointments.findDoctorBusySlots(doctor1.getId(), from, to);
+
+        assertThat(roomSlots).extracting(TimeSlot::getStartsAt).containsExactly(from.minusMinutes(30), from.plusHours(2));
+        assertThat(doctorSlots).extracting(TimeSlot::getStartsAt).containsExactly(from.plusHours(1), from.plusHours(2));
+    }
+
+    @Test
+    void should_keep_booked_minutes_per_room_and_day(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Room room = new Room("Radiology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime startsAt = LocalDateTime.parse("09:00 24/04/2023", formatter);
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        Appointment morning = entityManager.persist(new Appointment(patient, doctor, room, startsAt, startsAt.plusMinutes(45)));
+        Appointment afternoon = entityManager.persist(new Appointment(patient, doctor, room, startsAt.plusHours(5), startsAt.plusHours(6)));
+        Appointment nextDay = entityManager.persist(new Appointment(patient, doctor, room, startsAt.plusDays(1), startsAt.plusDays(1).plusMinutes(30)));
+
+        // Nightly from 22/04 at 23:30: the first one spills into the range but counts on the day before it
+        repoRecurringAppointments.save(new RecurringAppointment(patient, doctor, room,
+                startsAt.minusDays(2).plusMinutes(870), startsAt.minusDays(2).plusMinutes(930), 1, 4));
+
+        roomUtilization.booked(Arrays.asList(morning, nextDay));
+        roomUtilization.booked(Arrays.asList(afternoon));
+        roomUtilization.released(nextDay);
+        entityManager.flush();
+        entityManager.clear();
+
+        List<DayUsage> days = roomUtilization.between("Radiology", startsAt.toLocalDate().minusDays(1), startsAt.toLocalDate().plusDays(1));
+
+        assertThat(days).extracting(DayUsage::getDate).containsExactly(
+                startsAt.toLocalDate().minusDays(1), startsAt.toLocalDate(), startsAt.toLocalDate().plusDays(1));
+        assertThat(days).extracting(DayUsage::getBookedMinutes).containsExactly(60L, 165L, 60L);
+    }
+
+    @Test
+    void should_page_a_patient_history_newest_first_by_start_and_id(){
+        Patient patient1 = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Patient patient2 = new Patient("Mariela", "Eric", 42, "m.eric@email.com");
+        Doctor doctor = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime startsAt = LocalDateTime.parse("09:00 24/04/2023", formatter);
+
+        entityManager.persist(patient1);
+        entityManager.persist(patient2);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        Appointment oldest = entityManager.persist(new Appointment(patient1, doctor, room, startsAt.minusDays(30), startsAt.minusDays(30).plusHours(1)));
+        Appointment sameStart1 = entityManager.persist(new Appointment(patient1, doctor, room, startsAt, startsAt.plusHours(1)));
+        Appointment sameStart2 = entityManager.persist(new Appointment(patient1, doctor, room, startsAt, startsAt.plusHours(1)));
+        Appointment upcoming = entityManager.persist(new Appointment(patient1, doctor, room, startsAt.plusDays(30), startsAt.plusDays(30).plusHours(1)));
+        entityManager.persist(new Appointment(patient2, doctor, room, startsAt.plusDays(1), startsAt.plusDays(1).plusHours(1)));
+
+        List<AppointmentView> firstPage = repoAppointments.findPatientHistoryViews(patient1.getId(), PageRequest.of(0, 2));
+        AppointmentView last = firstPage.get(1);
+        List<AppointmentView> secondPage = repoAppointments.findPatientHistoryViewsBefore(patient1.getId(),
+                last.getStartsAt(), last.getId(), PageRequest.of(0, 2));
+
+        assertThat(firstPage).extracting(AppointmentView::getId).containsExactly(upcoming.getId(), sameStart2.getId());
+        assertThat(secondPage).extracting(AppointmentView::getId).containsExactly(sameStart1.getId(), oldest.getId());
+    }
+
+    @Test
+    void should_find_a_doctor_schedule_starting_in_the_window_in_start_order(){
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor1 = new Doctor ("Carina", "Zaray", 49, "c.zaray@hospital.accwe");
+        Doctor doctor2 = new Doctor ("Reyna", "Cayetana", 28, "r.cayetana@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime from = LocalDateTime.parse("09:00 24/04/2023", formatter);
+        LocalDateTime to = LocalDateTime.parse("13:00 24/04/2023", formatter);
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor1);
+        entityManager.persist(doctor2);
+        entityManager.persist(room);
+        entityManager.persist(new Appointment(patient, doctor1, room, from.plusHours(2), from.plusHours(3)));
+        entityManager.persist(new Appointment(patient, doctor1, room, from.minusHours(1), from));
+        entityManager.persist(new Appointment(patient, doctor2, room, from.plusHours(1), from.plusHours(2)));
+        entityManager.persist(new Appointment(patient, doctor1, room, from, from.plusHours(1)));
+        entityManager.persist(new Appointment(patient, doctor1, room, to, to.plusHours(1)));
+
+        List<AppointmentView> schedule = repoAppointments.findDoctorScheduleViews(doctor1.getId(), from, to);
+
+        assertThat(schedule).extracting(AppointmentView::getStartsAt).containsExactly(from, from.plusHours(2));
+        assertThat(schedule).extracting(view -> view.getDoctor().getId()).containsOnly(doctor1.getId());
+    }
+
+    @Test
+    void should_export_appointments_one_per_line_without_keeping_them_managed() throws Exception {
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Doctor doctor = new Doctor ("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Room room = new Room("Dermatology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+
+        entityManager.persist(patient);
+        entityManager.persist(doctor);
+        entityManager.persist(room);
+        Appointment appointment1 = entityManager.persist(new Appointment(patient, doctor, room, startsAt, startsAt.plusHours(1)));
+        Appointment appointment2 = entityManager.persist(new Appointment(patient, doctor, room, startsAt.plusHours(1), startsAt.plusHours(2)));
+        entityManager.flush();
+        entityManager.clear();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        appointmentExporter.writeNdjson(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8.name()).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).contains("\"id\":" + appointment1.getId()).contains("\"startsAt\":\"19:30 24/04/2023\"");
+        assertThat(lines[1]).contains("\"id\":" + appointment2.getId()).contains("\"roomName\":\"Dermatology\"");
+        assertThat(entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount()).isZero();
+    }
+
 }
@@ -0,0 +1,130 @@
+package com.example.demo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.TimeSlot;
+
+class BookedSeriesUnitTest {
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    private LocalDateTime at(String time){
+        return LocalDateTime.parse(time, formatter);
+    }
+
+    // Weekly from Monday 03/04/2023, 19:30 to 20:30, ten times: the last one is on 05/06/2023
+    private final BookedSeries weekly = new BookedSeries("Physiotherapy", 1L, 1L,
+            at("19:30 03/04/2023"), at("20:30 03/04/2023"), 7, 10);
+
+    @Test
+    void shouldFindTheOccurrenceASlotFallsOn(){
+        assertThat(weekly.overlaps(at("20:00 08/05/2023"), at("21:00 08/05/2023"))).isTrue();
+        assertThat(weekly.overlaps(at("18:00 05/06/2023"), at("19:31 05/06/2023"))).isTrue();
+        // Touching an occurrence or falling between two of them is not an overlap
+        assertThat(weekly.overlaps(at("20:30 08/05/2023"), at("21:00 08/05/2023"))).isFalse();
+        assertThat(weekly.overlaps(at("19:30 09/05/2023"), at("20:30 09/05/2023"))).isFalse();
+        // Before the first and after the last occurrence
+        assertThat(weekly.overlaps(at("19:30 27/03/2023"), at("20:30 27/03/2023"))).isFalse();
+        assertThat(weekly.overlaps(at("19:30 12/06/2023"), at("20:30 12/06/2023"))).isFalse();
+        // A long slot spanning several days catches the occurrence inside it
+        assertThat(weekly.overlaps(at("08:00 06/04/2023"), at("08:00 11/04/2023"))).isTrue();
+    }
+
+    @Test
+    void shouldExpandOnlyTheOccurrencesWithinAWindow(){
+        List<TimeSlot> occurrences = weekly.occurrencesBetween(at("20:00 17/04/2023"), at("19:30 01/05/2023"));
+
+        assertThat(occurrences).extracting(TimeSlot::getStartsAt)
+                .containsExactly(at("19:30 17/04/2023"), at("19:30 24/04/2023"));
+        assertThat(weekly.getLastFinishesAt()).isEqualTo(at("20:30 05/06/2023"));
+    }
+
+    @Test
+    void shouldTellWhetherTwoSeriesEverMeet(){
+        BookedSeries biweeklyLater = new BookedSeries("Physiotherapy", 2L, 2L,
+                at("20:00 17/04/2023"), at("20:30 17/04/2023"), 14, 5);
+        BookedSeries biweeklyOnTuesdays = new BookedSeries("Physiotherapy", 2L, 2L,
+                at("19:30 04/04/2023"), at("20:30 04/04/2023"), 14, 20);
+        BookedSeries afterTheLast = new BookedSeries("Physiotherapy", 2L, 2L,
+                at("19:30 12/06/2023"), at("20:30 12/06/2023"), 7, 10);
+
+        assertThat(weekly.overlaps(biweeklyLater)).isTrue();
+        assertThat(biweeklyLater.overlaps(weekly)).isTrue();
+        assertThat(weekly.overlaps(biweeklyOnTuesdays)).isFalse();
+        assertThat(weekly.overlaps(afterTheLast)).isFalse();
+    }
+
+    @Test
+    void shouldAgreeWithExpandingEveryOccurrence(){
+        Random random = new Random(42);
+        LocalDateTime base = at("00:00 01/04/2023");
+        for (int run = 0; run < 500; run++) {
+            List<TimeSlot> firstOccurrences = new ArrayList<>();
+            List<TimeSlot> secondOccurrences = new ArrayList<>();
+            BookedSeries first = randomSeries(random, base, firstOccurrences);
+            BookedSeries second = randomSeries(random, base, secondOccurrences);
+            LocalDateTime startsAt = base.plusMinutes(random.nextInt(60 * 24 * 120));
+            LocalDateTime finishesAt = startsAt.plusMinutes(1 + random.nextInt(60 * 24 * 3));
+
+            assertThat(first.overlaps(startsAt, finishesAt)).isEqualTo(anyOverlaps(firstOccurrences, startsAt, finishesAt));
+            boolean expected = false;
+            for (TimeSlot occurrence : firstOccurrences) {
+                expected |= anyOverlaps(secondOccurrences, occurrence.getStartsAt(), occurrence.getFinishesAt());
+            }
+            assertThat(first.overlaps(second)).isEqualTo(expected);
+            assertThat(first.occurrencesBetween(startsAt, finishesAt)).usingRecursiveFieldByFieldElementComparator()
+                    .containsExactlyElementsOf(overlapping(firstOccurrences, startsAt, finishesAt));
+            // At a start of its own, to check both ends of inclusive
+            LocalDateTime time = random.nextBoolean() ? startsAt : firstOccurrences.get(random.nextInt(firstOccurrences.size())).getStartsAt();
+            boolean inclusive = random.nextBoolean();
+            assertThat(first.latestOccurrencesBefore(time, inclusive, 3)).usingRecursiveFieldByFieldElementComparator()
+                    .containsExactlyElementsOf(latestBefore(firstOccurrences, time, inclusive, 3));
+        }
+    }
+
+    private BookedSeries randomSeries(Random random, LocalDateTime base, List<TimeSlot> occurrences){
+        int repeatEveryDays = 1 + random.nextInt(14);
+        int count = 1 + random.nextInt(20);
+        LocalDateTime startsAt = base.plusMinutes(random.nextInt(60 * 24 * 60));
+        LocalDateTime finishesAt = startsAt.plusMinutes(1 + random.nextInt(60 * 24 * repeatEveryDays));
+        for (int k = 0; k < count; k++) {
+            occurrences.add(new TimeSlot(startsAt.plusDays((long) k * repeatEveryDays), finishesAt.plusDays((long) k * repeatEveryDays)));
+        }
+        return new BookedSeries("Physiotherapy", 1L, 1L, startsAt, finishesAt, repeatEveryDays, count);
+    }
+
+    private List<TimeSlot> overlapping(List<TimeSlot> occurrences, LocalDateTime startsAt, LocalDateTime finishesAt){
+        List<TimeSlot> overlapping = new ArrayList<>();
+        for (TimeSlot occurrence : occurrences) {
+            if (occurrence.getStartsAt().isBefore(finishesAt) && occurrence.getFinishesAt().isAfter(startsAt)) {
+                overlapping.add(occurrence);
+            }
+        }
+        return overlapping;
+    }
+
+    private List<TimeSlot> latestBefore(List<TimeSlot> occurrences, LocalDateTime time, boolean inclusive, int limit){
+        List<TimeSlot> latest = new ArrayList<>();
+        for (int k = occurrences.size() - 1; k >= 0 && latest.size() < limit; k--) {
+            LocalDateTime startsAt = occurrences.get(k).getStartsAt();
+            if (startsAt.isBefore(time) || (inclusive && startsAt.isEqual(time))) {
+                latest.add(occurrences.get(k));
+            }
+        }
+        return latest;
+    }
+
+    private boolean anyOverlaps(List<TimeSlot> occurrences, LocalDateTime startsAt, LocalDateTime finishesAt){
+        return !overlapping(occurrences, startsAt, finishesAt).isEmpty();
+    }
+
+}
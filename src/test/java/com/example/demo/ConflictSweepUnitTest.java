@@ -0,0 +1,88 @@
+package com.example.demo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.BookedSlot;
+import com.example.demo.services.ConflictSweep;
+
+class ConflictSweepUnitTest {
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    private BookedSlot slot(String roomName, long doctorId, long patientId, String startsAt, String finishesAt){
+        return new BookedSlot(roomName, doctorId, patientId,
+                LocalDateTime.parse(startsAt, formatter), LocalDateTime.parse(finishesAt, formatter));
+    }
+
+    @Test
+    void shouldAcceptEverythingWhenNothingOverlaps(){
+        List<BookedSlot> candidates = Arrays.asList(
+                slot("Dermatology", 1, 1, "19:30 24/04/2023", "20:00 24/04/2023"),
+                slot("Dermatology", 1, 1, "20:00 24/04/2023", "20:30 24/04/2023"),
+                slot("Oncology", 2, 2, "19:30 24/04/2023", "20:30 24/04/2023"));
+        List<BookedSlot> stored = Collections.singletonList(
+                slot("Dermatology", 3, 3, "18:00 24/04/2023", "19:30 24/04/2023"));
+
+        assertThat(ConflictSweep.findConflicts(candidates, stored)).isEmpty();
+    }
+
+    @Test
+    void shouldRejectCandidatesOverlappingStoredSlots(){
+        List<BookedSlot> candidates = Arrays.asList(
+                slot("Dermatology", 1, 1, "19:30 24/04/2023", "20:00 24/04/2023"),
+                slot("Oncology", 2, 2, "19:30 24/04/2023", "20:00 24/04/2023"),
+                slot("Emergency", 3, 5, "08:00 24/04/2023", "22:00 24/04/2023"));
+        List<BookedSlot> stored = Arrays.asList(
+                slot("Dermatology", 4, 4, "19:45 24/04/2023", "20:15 24/04/2023"),
+                slot("Gynecology", 2, 4, "19:00 24/04/2023", "19:45 24/04/2023"),
+                slot("Gynecology", 6, 5, "10:00 24/04/2023", "10:30 24/04/2023"));
+
+        assertThat(ConflictSweep.findConflicts(candidates, stored)).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void shouldKeepTheEarliestOfOverlappingCandidates(){
+        List<BookedSlot> candidates = Arrays.asList(
+                slot("Dermatology", 1, 1, "20:00 24/04/2023", "20:30 24/04/2023"),
+                slot("Dermatology", 2, 2, "19:30 24/04/2023", "20:15 24/04/2023"),
+                slot("Oncology", 2, 3, "20:00 24/04/2023", "20:30 24/04/2023"),
+                slot("Oncology", 4, 3, "20:30 24/04/2023", "21:00 24/04/2023"));
+
+        assertThat(ConflictSweep.findConflicts(candidates, new ArrayList<>())).containsExactly(0, 2);
+    }
+
+    @Test
+    void shouldNotTreatUnsavedDoctorsAndPatientsAsTheSamePerson(){
+        List<BookedSlot> candidates = Arrays.asList(
+                slot("Dermatology", 0, 0, "19:30 24/04/2023", "20:00 24/04/2023"),
+                slot("Oncology", 0, 0, "19:30 24/04/2023", "20:00 24/04/2023"));
+
+        assertThat(ConflictSweep.findConflicts(candidates, new ArrayList<>())).isEmpty();
+    }
+    @Test
+    void shouldRejectCandidatesFallingOnAnOccurrenceOfAStoredSeries(){
+        // Weekly in Dermatology from 03/04/2023, 19:30 to 20:30, ten times
+        BookedSeries weekly = new BookedSeries("Dermatology", 3L, 3L,
+                LocalDateTime.parse("19:30 03/04/2023", formatter), LocalDateTime.parse("20:30 03/04/2023", formatter), 7, 10);
+        List<BookedSlot> candidates = Arrays.asList(
+                slot("Dermatology", 1, 1, "20:00 24/04/2023", "20:30 24/04/2023"),
+                slot("Dermatology", 1, 1, "20:00 25/04/2023", "20:30 25/04/2023"),
+                slot("Oncology", 3, 2, "20:00 01/05/2023", "20:30 01/05/2023"),
+                slot("Oncology", 2, 2, "20:00 01/05/2023", "20:30 01/05/2023"));
+
+        assertThat(ConflictSweep.findConflicts(candidates, Collections.<BookedSlot>emptyList(), Collections.singletonList(weekly)))
+                .containsExactly(0, 2);
+    }
+
+}
@@ -3,7 +3,25 @@ package com.example.demo;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.cache.CacheType;
+import org.springframework.boot.test.autoconfigure.core.AutoConfigureCache;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
@@ -11,12 +29,16 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
 
+import com.example.demo.dto.PersonView;
 import com.example.demo.repositories.DoctorRepository;
 import com.example.demo.entities.Doctor;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 
 @DataJpaTest
 @AutoConfigureTestDatabase(replace=Replace.NONE)
+@AutoConfigureCache(cacheProvider = CacheType.CAFFEINE)
+@Import(CacheConfiguration.class)
 class DoctorJpaUnitTest {
 
     @Autowired
@@ -25,6 +47,9 @@ class DoctorJpaUnitTest {
     @Autowired
     DoctorRepository repository;
 
+    @Autowired
+    CacheManager cacheManager;
+
     @Test
     void should_find_no_doctors_if_repository_is_empty(){
         Iterable<Doctor> doctors = repository.findAll();
@@ -102,5 +127,134 @@ class DoctorJpaUnitTest {
         repository.deleteAll();
         assertThat(repository.findAll()).isEmpty();
     }
-    
+
+    @Test
+    void should_page_doctors_by_id(){
+        Doctor doc1 = new Doctor("Juan","Carlos", 34, "j.carlos@hospital.accwe");
+        Doctor doc2 = new Doctor("Cornelio","Andrea", 59, "c.andrea@hospital.accwe");
+        Doctor doc3 = new Doctor("Clarisa","Julia", 29, "c.julia@hospital.accwe");
+
+        entityManager.persist(doc1);
+        entityManager.persist(doc2);
+        entityManager.persist(doc3);
+
+        List<Doctor> firstPage = repository.findByIdGreaterThanOrderByIdAsc(0, PageRequest.of(0, 2));
+        List<Doctor> secondPage = repository.findByIdGreaterThanOrderByIdAsc(firstPage.get(1).getId(), PageRequest.of(0, 2));
+
+        assertThat(firstPage).containsExactly(doc1, doc2);
+        assertThat(secondPage).containsExactly(doc3);
+    }
+
+    @Test
+    void should_fetch_one_block_of_ids_per_allocation_and_batch_the_inserts(){
+        List<Doctor> doctors = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            doctors.add(new Doctor("Doctor" + i, "Carlos", 34, "doctor" + i + "@hospital.accwe"));
+        }
+
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        repository.saveAll(doctors);
+        entityManager.flush();
+
+        // One id fetch per block of 50 plus the batched insert, where it used to be one id fetch per row
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(3);
+        assertThat(doctors.get(49).getId() + 1).isEqualTo(doctors.get(50).getId());
+    }
+
+    @Test
+    void should_cache_doctor_lookups_until_the_doctor_is_deleted(){
+        Doctor doc = new Doctor("Juan","Carlos", 34, "j.carlos@hospital.accwe");
+        entityManager.persist(doc);
+        entityManager.flush();
+
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        assertThat(repository.findViewById(doc.getId())).isPresent();
+        assertThat(repository.findViewById(doc.getId())).isPresent();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(((CaffeineCache) cacheManager.getCache("doctors")).getNativeCache().stats().hitCount()).isEqualTo(1);
+
+        repository.deleteById(doc.getId());
+
+        assertThat(repository.findViewById(doc.getId())).isEmpty();
+    }
+
+    @Test
+    void should_query_a_missing_doctor_again_instead_of_caching_the_miss(){
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        assertThat(repository.findViewById(12345L)).isEmpty();
+        assertThat(repository.findViewById(12345L)).isEmpty();
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        assertThat(cacheManager.getCache("doctors").get(12345L)).isNull();
+    }
+
+    @Test
+    void should_share_one_load_between_concurrent_lookups_of_the_same_doctor() throws Exception {
+        // A cache of its own, so the hits here do not show up in the stats of the shared one
+        Cache doctors = new CacheConfiguration.CoalescingCaffeineCache("doctors", Caffeine.newBuilder().build());
+        PersonView view = new PersonView(7L, "Juan", "Carlos", 34, "j.carlos@hospital.accwe");
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PersonView[] results = new PersonView[4];
+
+        Thread[] lookups = new Thread[results.length];
+        for (int i = 0; i < lookups.length; i++) {
+            int slot = i;
+            lookups[i] = new Thread(() -> results[slot] = doctors.get(7L, () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                release.await();
+                return view;
+            }));
+        }
+
+        // The first lookup is inside the load, the others arrive while it is still running
+        lookups[0].start();
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i < lookups.length; i++) {
+            lookups[i].start();
+        }
+        for (int i = 1; i < lookups.length; i++) {
+            while (lookups[i].getState() == Thread.State.NEW || lookups[i].getState() == Thread.State.RUNNABLE) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread lookup : lookups) {
+            lookup.join(5000);
+        }
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(results).containsOnly(view);
+    }
+}
+
+// Block sizes can be tuned per sequence in the properties, over the one in the mapping. H2 has real
+// sequences whose increment is fixed by the migrations, so the startup checks against it are relaxed.
+@DataJpaTest(properties = {"spring.jpa.properties.id.doctor_sequence.allocation_size=20",
+        "spring.jpa.properties.hibernate.id.sequence.increment_size_mismatch_strategy=log",
+        "spring.jpa.hibernate.ddl-auto=none"})
+@AutoConfigureTestDatabase(replace=Replace.NONE)
+class DoctorIdAllocationJpaUnitTest {
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void should_take_the_allocation_size_of_a_sequence_from_the_properties(){
+        IdentifierGenerator generator = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class).getMetamodel().entityPersister(Doctor.class).getIdentifierGenerator();
+
+        assertThat(((SequenceStyleGenerator) generator).getOptimizer().getIncrementSize()).isEqualTo(20);
+    }
 }
@@ -2,6 +2,7 @@ package com.example.demo;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
@@ -12,12 +13,17 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.*;
 
@@ -26,22 +32,47 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.StreamUtils;
 import org.springframework.util.MultiValueMap;
 
 import com.example.demo.controllers.*;
 import com.example.demo.repositories.*;
 import com.example.demo.entities.*;
+import com.example.demo.dto.AppointmentView;
+import com.example.demo.dto.BookedSeries;
+import com.example.demo.dto.DayUsage;
+import com.example.demo.dto.PersonView;
+import com.example.demo.dto.RecurringAppointmentView;
+import com.example.demo.dto.RoomView;
+import com.example.demo.dto.TimeSlot;
+import com.example.demo.services.CollectionVersions;
+import com.example.demo.services.PersonImporter;
+import com.example.demo.services.RoomUtilization;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 @WebMvcTest(DoctorController.class)
+@Import(CollectionVersions.class)
 class DoctorControllerUnitTest {
 
     @MockBean
     private DoctorRepository doctorRepository;
 
+    @MockBean
+    private PersonImporter personImporter;
+
+    @MockBean
+    private AppointmentRepository appointmentRepository;
+
+    @MockBean
+    private RecurringAppointmentRepository recurringAppointmentRepository;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -59,6 +90,69 @@ class DoctorControllerUnitTest {
                 .andExpect(status().isCreated());
     }
 
+    @Test
+    void shouldReplayARetriedDoctorCreationWithoutSavingAgain() throws Exception {
+        Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        String content = objectMapper.writeValueAsString(doctor);
+
+        String first = mockMvc.perform(post("/api/doctor").header("Idempotency-Key", "create-perla")
+                .contentType(MediaType.APPLICATION_JSON).content(content))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist("Idempotent-Replayed"))
+                .andReturn().getResponse().getContentAsString();
+
+        mockMvc.perform(post("/api/doctor").header("Idempotency-Key", "create-perla")
+                .contentType(MediaType.APPLICATION_JSON).content(content))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Idempotent-Replayed", "true"))
+                .andExpect(content().json(first, true));
+
+        verify(doctorRepository, times(1)).save(any(Doctor.class));
+    }
+
+    @Test
+    void shouldRejectARetryWhileTheFirstDoctorCreationIsStillRunning() throws Exception {
+        Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        String content = objectMapper.writeValueAsString(doctor);
+        int[] retryStatus = new int[1];
+
+        // The retry arrives while the first request is saving
+        doAnswer(invocation -> {
+            retryStatus[0] = mockMvc.perform(post("/api/doctor").header("Idempotency-Key", "create-slowly")
+                    .contentType(MediaType.APPLICATION_JSON).content(content))
+                    .andReturn().getResponse().getStatus();
+            return invocation.getArgument(0);
+        }).when(doctorRepository).save(any(Doctor.class));
+
+        mockMvc.perform(post("/api/doctor").header("Idempotency-Key", "create-slowly")
+                .contentType(MediaType.APPLICATION_JSON).content(content))
+                .andExpect(status().isCreated());
+
+        assertThat(retryStatus[0]).isEqualTo(409);
+        verify(doctorRepository, times(1)).save(any(Doctor.class));
+
+        // Once it has finished, a retry gets its response back
+        mockMvc.perform(post("/api/doctor").header("Idempotency-Key", "create-slowly")
+                .contentType(MediaType.APPLICATION_JSON).content(content))
+                .andExpect(status().isCreated())
+                .andExpect(header().string("Idempotent-Replayed", "true"));
+    }
+
+    @Test
+    void shouldRejectAnIdempotencyKeyReusedWithAnotherDoctor() throws Exception {
+        Doctor doctor1 = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Doctor doctor2 = new Doctor("Miren", "Iniesta", 24, "m.iniesta@hospital.accwe");
+
+        mockMvc.perform(post("/api/doctor").header("Idempotency-Key", "create-once")
+                .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(doctor1)))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/api/doctor").header("Idempotency-Key", "create-once")
+                .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(doctor2)))
+                .andExpect(status().isUnprocessableEntity());
+
+        verify(doctorRepository, times(1)).save(any(Doctor.class));
+    }
+
     @Test
     void shouldGetDoctors() throws Exception {
         Doctor doctor1 = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
@@ -69,16 +163,46 @@ class DoctorControllerUnitTest {
 
         String contentExpected = objectMapper.writeValueAsString(doctors);
 
-        when(doctorRepository.findAll()).thenReturn(doctors);
+        when(doctorRepository.findAllViews()).thenReturn(doctors.stream().map(PersonView::of).collect(Collectors.toList()));
         mockMvc.perform(get("/api/doctors"))
                 .andExpect(status().isOk())
                 .andExpect(content().json(contentExpected));
     }
 
+    @Test
+    void shouldGetDoctorsPageWithNextCursor() throws Exception {
+        Doctor doctor1 = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Doctor doctor2 = new Doctor("Miren", "Iniesta", 24, "m.iniesta@hospital.accwe");
+        doctor1.setId(4);
+        doctor2.setId(7);
+        List<Doctor> doctors = new ArrayList<Doctor>();
+        doctors.add(doctor1);
+        doctors.add(doctor2);
+
+        when(doctorRepository.findViewsByIdGreaterThan(3, PageRequest.of(0, 2))).thenReturn(doctors.stream().map(PersonView::of).collect(Collectors.toList()));
+        mockMvc.perform(get("/api/doctors").param("after", "3").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "7"))
+                .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    void shouldGetLastDoctorsPageWithoutNextCursor() throws Exception {
+        Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        doctor.setId(4);
+        List<Doctor> doctors = new ArrayList<Doctor>();
+        doctors.add(doctor);
+
+        when(doctorRepository.findViewsByIdGreaterThan(0, PageRequest.of(0, 2))).thenReturn(doctors.stream().map(PersonView::of).collect(Collectors.toList()));
+        mockMvc.perform(get("/api/doctors").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"));
+    }
+
     @Test
     void shouldNoGetDoctors() throws Exception {
         List<Doctor> doctors = new ArrayList<Doctor>();
-        when(doctorRepository.findAll()).thenReturn(doctors);
+        when(doctorRepository.findAllViews()).thenReturn(doctors.stream().map(PersonView::of).collect(Collectors.toList()));
 
         mockMvc.perform(get("/api/doctors")).andExpect(status().isNoContent());
     }
@@ -88,7 +212,7 @@ class DoctorControllerUnitTest {
         Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
         Optional<Doctor> doctorOpc = Optional.of(doctor);
 
-        when(doctorRepository.findById(doctor.getId())).thenReturn(doctorOpc);
+        when(doctorRepository.findViewById(doctor.getId())).thenReturn(doctorOpc.map(PersonView::of));
         mockMvc.perform(get("/api/doctors/{id}", doctor.getId())
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(doctor)))
@@ -99,9 +223,53 @@ class DoctorControllerUnitTest {
                 .andExpect(jsonPath("$.email").value("p.amalia@hospital.accwe"));
     }
 
+    @Test
+    void shouldStreamTheDoctorImportReport() throws Exception {
+        String csv = "firstName,lastName,age,email\nPerla,Amalia,24,p.amalia@hospital.accwe\n";
+        doAnswer(invocation -> {
+            InputStream in = invocation.getArgument(0);
+            OutputStream out = invocation.getArgument(1);
+            assertThat(StreamUtils.copyToString(in, StandardCharsets.UTF_8)).isEqualTo(csv);
+            out.write("{\"imported\":1,\"failed\":0}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(personImporter).importDoctors(any(), any(), any());
+
+        MvcResult result = mockMvc.perform(post("/api/doctors/import").contentType("text/csv").content(csv))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string("{\"imported\":1,\"failed\":0}\n"));
+    }
+
+    @Test
+    void shouldAnswerNotModifiedForAnUnchangedDoctor() throws Exception {
+        Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        doctor.setId(4);
+        when(doctorRepository.findViewById(4)).thenReturn(Optional.of(PersonView.of(doctor)));
+
+        String etag = mockMvc.perform(get("/api/doctors/{id}", 4))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/api/doctors/{id}", 4).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        verify(doctorRepository, times(1)).findViewById(4);
+
+        mockMvc.perform(post("/api/doctor").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(doctor)))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/api/doctors/{id}", 4).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+    }
+
     @Test
     void shouldNotGetAnyDoctorById() throws Exception {
-        when(doctorRepository.findById(anyLong())).thenReturn(Optional.empty());
+        when(doctorRepository.findViewById(anyLong())).thenReturn(Optional.empty());
         long id = 3;
         mockMvc.perform(get("/api/doctors/{id}", id)).andExpect(status().isNotFound());
 
@@ -140,14 +308,137 @@ class DoctorControllerUnitTest {
         verify(doctorRepository, times(1)).deleteAll();
     }
 
+    @Test
+    void shouldGetDoctorFreeSlots() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime from = LocalDateTime.parse("09:00 24/04/2023", formatter);
+        LocalDateTime to = LocalDateTime.parse("13:00 24/04/2023", formatter);
+        List<TimeSlot> busy = Arrays.asList(
+            new TimeSlot(LocalDateTime.parse("08:30 24/04/2023", formatter), LocalDateTime.parse("09:30 24/04/2023", formatter)),
+            new TimeSlot(LocalDateTime.parse("10:00 24/04/2023", formatter), LocalDateTime.parse("12:40 24/04/2023", formatter)));
+
+        when(doctorRepository.existsById(1L)).thenReturn(true);
+        when(appointmentRepository.findDoctorBusySlots(1L, from, to)).thenReturn(busy);
+
+        mockMvc.perform(get("/api/doctors/{id}/free-slots", 1)
+                .param("from", "09:00 24/04/2023")
+                .param("to", "13:00 24/04/2023")
+                .param("duration", "30"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].startsAt").value("09:30 24/04/2023"))
+                .andExpect(jsonPath("$[0].finishesAt").value("10:00 24/04/2023"));
+    }
+
+    @Test
+    void shouldNotGetFreeSlotsOfUnknownDoctor() throws Exception {
+        when(doctorRepository.existsById(1L)).thenReturn(false);
+
+        mockMvc.perform(get("/api/doctors/{id}/free-slots", 1)
+                .param("from", "09:00 24/04/2023")
+                .param("to", "13:00 24/04/2023")
+                .param("duration", "30"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldGetDoctorScheduleInStartOrder() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime from = LocalDateTime.parse("09:00 24/04/2023", formatter);
+        LocalDateTime to = LocalDateTime.parse("13:00 24/04/2023", formatter);
+
+        Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        doctor.setId(1);
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Appointment first = new Appointment(patient, doctor, new Room("Dermatology"), from, from.plusHours(1));
+        Appointment second = new Appointment(patient, doctor, new Room("Oncology"), from.plusHours(2), from.plusHours(3));
+        first.setId(7);
+        second.setId(3);
+
+        when(appointmentRepository.findDoctorScheduleViews(1L, from, to))
+                .thenReturn(Arrays.asList(first, second).stream().map(AppointmentView::of).collect(Collectors.toList()));
+
+        mockMvc.perform(get("/api/doctors/{id}/appointments", 1)
+                .param("from", "09:00 24/04/2023")
+                .param("to", "13:00 24/04/2023"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(7))
+                .andExpect(jsonPath("$[1].room.roomName").value("Oncology"));
+
+        verify(doctorRepository, times(0)).existsById(anyLong());
+    }
+
+    @Test
+    void shouldListTheOccurrencesOfRecurringAppointmentsInTheSchedule() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime from = LocalDateTime.parse("00:00 24/04/2023", formatter);
+        LocalDateTime to = LocalDateTime.parse("00:00 27/04/2023", formatter);
+
+        Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        doctor.setId(1);
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        Appointment single = new Appointment(patient, doctor, new Room("Dermatology"), from.plusDays(1).plusHours(9), from.plusDays(1).plusHours(10));
+        single.setId(7);
+        // Daily at 08:00 from the day before the window: the one of 23/04 is outside of it
+        RecurringAppointmentView daily = new RecurringAppointmentView(5, 2L, "Mariela", "Eric", 42, "m.eric@email.com",
+                1L, "Perla", "Amalia", 24, "p.amalia@hospital.accwe", "Physiotherapy",
+                from.minusHours(16), from.minusHours(15), 1, 10, from.plusDays(8).plusHours(9));
+
+        when(appointmentRepository.findDoctorScheduleViews(1L, from, to)).thenReturn(Collections.singletonList(AppointmentView.of(single)));
+        when(recurringAppointmentRepository.findDoctorSeriesViews(1L, from, to)).thenReturn(Collections.singletonList(daily));
+
+        mockMvc.perform(get("/api/doctors/{id}/appointments", 1)
+                .param("from", "00:00 24/04/2023")
+                .param("to", "00:00 27/04/2023"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(4))
+                .andExpect(jsonPath("$[0].startsAt").value("08:00 24/04/2023"))
+                .andExpect(jsonPath("$[0].recurringAppointmentId").value(5))
+                .andExpect(jsonPath("$[0].patient.firstName").value("Mariela"))
+                .andExpect(jsonPath("$[1].startsAt").value("08:00 25/04/2023"))
+                .andExpect(jsonPath("$[2].id").value(7))
+                .andExpect(jsonPath("$[2].recurringAppointmentId").doesNotExist())
+                .andExpect(jsonPath("$[3].startsAt").value("08:00 26/04/2023"));
+    }
+
+    @Test
+    void shouldTellAnIdleDoctorFromAnUnknownOne() throws Exception {
+        when(doctorRepository.existsById(1L)).thenReturn(true);
+        when(doctorRepository.existsById(2L)).thenReturn(false);
+
+        mockMvc.perform(get("/api/doctors/{id}/appointments", 1)
+                .param("from", "09:00 24/04/2023")
+                .param("to", "13:00 24/04/2023"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/api/doctors/{id}/appointments", 2)
+                .param("from", "09:00 24/04/2023")
+                .param("to", "13:00 24/04/2023"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/doctors/{id}/appointments", 1)
+                .param("from", "13:00 24/04/2023")
+                .param("to", "09:00 24/04/2023"))
+                .andExpect(status().isBadRequest());
+    }
+
 }
 
 @WebMvcTest(PatientController.class)
+@Import(CollectionVersions.class)
 class PatientControllerUnitTest {
 
     @MockBean
     private PatientRepository patientRepository;
 
+    @MockBean
+    private RecurringAppointmentRepository recurringAppointmentRepository;
+
+    @MockBean
+    private PersonImporter personImporter;
+
+    @MockBean
+    private AppointmentRepository appointmentRepository;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -175,16 +466,29 @@ class PatientControllerUnitTest {
 
         String contentExpected = objectMapper.writeValueAsString(patients);
 
-        when(patientRepository.findAll()).thenReturn(patients);
+        when(patientRepository.findAllViews()).thenReturn(patients.stream().map(PersonView::of).collect(Collectors.toList()));
         mockMvc.perform(get("/api/patients"))
                 .andExpect(status().isOk())
                 .andExpect(content().json(contentExpected));
     }
 
+    @Test
+    void shouldGetPatientsPageWithNextCursor() throws Exception {
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        patient.setId(12);
+        List<Patient> patients = new ArrayList<Patient>();
+        patients.add(patient);
+
+        when(patientRepository.findViewsByIdGreaterThan(5, PageRequest.of(0, 1))).thenReturn(patients.stream().map(PersonView::of).collect(Collectors.toList()));
+        mockMvc.perform(get("/api/patients").param("after", "5").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "12"));
+    }
+
     @Test
     void shouldNoGetPatients() throws Exception {
         List<Patient> patients = new ArrayList<>();
-        when(patientRepository.findAll()).thenReturn(patients);
+        when(patientRepository.findAllViews()).thenReturn(patients.stream().map(PersonView::of).collect(Collectors.toList()));
         mockMvc.perform(get("/api/patients"))
                 .andExpect(status().isNoContent());
 
@@ -196,7 +500,7 @@ class PatientControllerUnitTest {
         Optional<Patient> patientOptional = Optional.of(patient);
 
         String contentPatient = objectMapper.writeValueAsString(patient);
-        when(patientRepository.findById(patient.getId())).thenReturn(patientOptional);
+        when(patientRepository.findViewById(patient.getId())).thenReturn(patientOptional.map(PersonView::of));
         mockMvc.perform(get("/api/patients/{id}", patient.getId())
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(contentPatient))
@@ -210,7 +514,7 @@ class PatientControllerUnitTest {
     @Test
     @DisplayName("should no get patient by id if no found in data base")
     void shouldNoGetAnyPatientById() throws Exception {
-        when(patientRepository.findById(anyLong())).thenReturn(Optional.empty());
+        when(patientRepository.findViewById(anyLong())).thenReturn(Optional.empty());
         long id = 8;
         mockMvc.perform(get("/api/patients/{id}", id)).andExpect(status().isNotFound());
     }
@@ -247,15 +551,100 @@ class PatientControllerUnitTest {
         verify(patientRepository, times(1)).deleteAll();
     }
 
+    @Test
+    void shouldGetPatientHistoryNewestFirstWithNextCursor() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        patient.setId(1);
+        Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Appointment newest = new Appointment(patient, doctor, new Room("Dermatology"), startsAt, startsAt.plusHours(1));
+        Appointment older = new Appointment(patient, doctor, new Room("Dermatology"), startsAt.minusDays(7), startsAt.minusDays(7).plusHours(1));
+        newest.setId(42);
+        older.setId(17);
+
+        when(appointmentRepository.findPatientHistoryViews(1L, PageRequest.of(0, 2)))
+                .thenReturn(Arrays.asList(newest, older).stream().map(AppointmentView::of).collect(Collectors.toList()));
+        when(appointmentRepository.findPatientHistoryViewsBefore(1L, startsAt.minusDays(7), 17L, PageRequest.of(0, 2)))
+                .thenReturn(Collections.emptyList());
+
+        mockMvc.perform(get("/api/patients/{id}/appointments", 1).param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "2023-04-17T19:30_17"))
+                .andExpect(jsonPath("$[0].id").value(42))
+                .andExpect(jsonPath("$[1].id").value(17));
+
+        mockMvc.perform(get("/api/patients/{id}/appointments", 1).param("limit", "2").param("after", "2023-04-17T19:30_17"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void shouldMergeTheOccurrencesOfRecurringAppointmentsIntoTheHistory() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime startsAt = LocalDateTime.parse("19:30 24/04/2023", formatter);
+
+        Patient patient = new Patient("Jose Luis", "Olaya", 37, "j.olaya@email.com");
+        patient.setId(1);
+        Doctor doctor = new Doctor("Perla", "Amalia", 24, "p.amalia@hospital.accwe");
+        Appointment single = new Appointment(patient, doctor, new Room("Dermatology"), startsAt, startsAt.plusHours(1));
+        single.setId(42);
+        // Weekly three times, on 10/04, 17/04 and 24/04 at 09:00
+        RecurringAppointmentView weekly = new RecurringAppointmentView(5, 1L, "Jose Luis", "Olaya", 37, "j.olaya@email.com",
+                2L, "Perla", "Amalia", 24, "p.amalia@hospital.accwe", "Physiotherapy",
+                startsAt.minusDays(14).minusMinutes(630), startsAt.minusDays(14).minusMinutes(570), 7, 3, startsAt.minusMinutes(570));
+
+        when(appointmentRepository.findPatientHistoryViews(1L, PageRequest.of(0, 2)))
+                .thenReturn(Collections.singletonList(AppointmentView.of(single)));
+        when(recurringAppointmentRepository.findPatientSeriesViews(1L)).thenReturn(Collections.singletonList(weekly));
+        when(appointmentRepository.findPatientHistoryViewsBefore(1L, startsAt.minusMinutes(630), 0L, PageRequest.of(0, 2)))
+                .thenReturn(Collections.emptyList());
+        when(recurringAppointmentRepository.findPatientSeriesViewsStartedBy(1L, startsAt.minusMinutes(630)))
+                .thenReturn(Collections.singletonList(weekly));
+
+        mockMvc.perform(get("/api/patients/{id}/appointments", 1).param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "2023-04-24T09:00_0"))
+                .andExpect(jsonPath("$[0].id").value(42))
+                .andExpect(jsonPath("$[1].startsAt").value("09:00 24/04/2023"))
+                .andExpect(jsonPath("$[1].recurringAppointmentId").value(5));
+
+        mockMvc.perform(get("/api/patients/{id}/appointments", 1).param("limit", "2").param("after", "2023-04-24T09:00_0"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "2023-04-10T09:00_0"))
+                .andExpect(jsonPath("$[0].startsAt").value("09:00 17/04/2023"))
+                .andExpect(jsonPath("$[1].startsAt").value("09:00 10/04/2023"));
+    }
+
+    @Test
+    void shouldNotGetHistoryOfUnknownPatientOrWithABadCursor() throws Exception {
+        when(patientRepository.existsById(8L)).thenReturn(false);
+
+        mockMvc.perform(get("/api/patients/{id}/appointments", 8))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/patients/{id}/appointments", 8).param("after", "yesterday"))
+                .andExpect(status().isBadRequest());
+    }
+
 
 }
 
 @WebMvcTest(RoomController.class)
+@Import(CollectionVersions.class)
 class RoomControllerUnitTest {
 
     @MockBean
     private RoomRepository roomRepository;
 
+    @MockBean
+    private AppointmentRepository appointmentRepository;
+
+    @MockBean
+    private RecurringAppointmentRepository recurringAppointmentRepository;
+
+    @MockBean
+    private RoomUtilization roomUtilization;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -283,16 +672,34 @@ class RoomControllerUnitTest {
 
         String contentExpected = objectMapper.writeValueAsString(rooms);
 
-        when(roomRepository.findAll()).thenReturn(rooms);
+        when(roomRepository.findAllViews()).thenReturn(rooms.stream().map(RoomView::of).collect(Collectors.toList()));
         mockMvc.perform(get("/api/rooms"))
                 .andExpect(status().isOk())
                 .andExpect(content().json(contentExpected));
     }
 
+    @Test
+    void shouldGetRoomsPageWithNextCursor() throws Exception {
+        Room room = new Room("Gynecology");
+        List<Room> rooms = new ArrayList<Room>();
+        rooms.add(room);
+
+        when(roomRepository.findViewsByRoomNameGreaterThan("Dermatology", PageRequest.of(0, 1))).thenReturn(rooms.stream().map(RoomView::of).collect(Collectors.toList()));
+        mockMvc.perform(get("/api/rooms").param("after", "Dermatology").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "Gynecology"));
+    }
+
+    @Test
+    void shouldNoGetRoomsPageAfterTheLastRoom() throws Exception {
+        mockMvc.perform(get("/api/rooms").param("after", "Radiology"))
+                .andExpect(status().isNoContent());
+    }
+
     @Test
     void shouldNoGetRooms() throws Exception {
         List<Room> rooms = new ArrayList<>();
-        when(roomRepository.findAll()).thenReturn(rooms);
+        when(roomRepository.findAllViews()).thenReturn(rooms.stream().map(RoomView::of).collect(Collectors.toList()));
         mockMvc.perform(get("/api/rooms"))
                 .andExpect(status().isNoContent());
     }
@@ -304,7 +711,7 @@ class RoomControllerUnitTest {
         Optional<Room> roomOptional = Optional.of(room);
 
         String contentRoom = objectMapper.writeValueAsString(room);
-        when(roomRepository.findByRoomName(room.getRoomName())).thenReturn(roomOptional);
+        when(roomRepository.findViewByRoomName(room.getRoomName())).thenReturn(roomOptional.map(RoomView::of));
         mockMvc.perform(get("/api/rooms/{roomName}", room.getRoomName())
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(contentRoom))
@@ -315,7 +722,7 @@ class RoomControllerUnitTest {
     @Test
     @DisplayName("should no get room by name if no found in data base")
     void shouldNoGetAnyPatientById() throws Exception {
-        when(roomRepository.findByRoomName(any())).thenReturn(Optional.empty());
+        when(roomRepository.findViewByRoomName(any())).thenReturn(Optional.empty());
         String roomName = "Gynecology";
         mockMvc.perform(get("/api/rooms/{roomName}", roomName)).andExpect(status().isNotFound());
     }
@@ -352,5 +759,99 @@ class RoomControllerUnitTest {
         verify(roomRepository, times(1)).deleteAll();
     }
 
+    @Test
+    void shouldGetRoomFreeSlots() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime from = LocalDateTime.parse("09:00 24/04/2023", formatter);
+        LocalDateTime to = LocalDateTime.parse("13:00 24/04/2023", formatter);
+        List<TimeSlot> busy = Arrays.asList(
+            new TimeSlot(LocalDateTime.parse("10:00 24/04/2023", formatter), LocalDateTime.parse("11:00 24/04/2023", formatter)));
+
+        when(roomRepository.findByRoomName("Gynecology")).thenReturn(Optional.of(new Room("Gynecology")));
+        when(appointmentRepository.findRoomBusySlots("Gynecology", from, to)).thenReturn(busy);
+
+        mockMvc.perform(get("/api/rooms/{roomName}/free-slots", "Gynecology")
+                .param("from", "09:00 24/04/2023")
+                .param("to", "13:00 24/04/2023")
+                .param("duration", "60"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].startsAt").value("09:00 24/04/2023"))
+                .andExpect(jsonPath("$[0].finishesAt").value("10:00 24/04/2023"))
+                .andExpect(jsonPath("$[1].startsAt").value("11:00 24/04/2023"))
+                .andExpect(jsonPath("$[1].finishesAt").value("13:00 24/04/2023"));
+    }
+
+    @Test
+    void shouldKeepRecurringOccurrencesOutOfTheRoomFreeSlots() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+        LocalDateTime from = LocalDateTime.parse("09:00 24/04/2023", formatter);
+        LocalDateTime to = LocalDateTime.parse("13:00 24/04/2023", formatter);
+        List<TimeSlot> busy = Arrays.asList(
+            new TimeSlot(LocalDateTime.parse("10:00 24/04/2023", formatter), LocalDateTime.parse("11:00 24/04/2023", formatter)));
+        // Weekly from the 3rd, so its fourth occurrence takes 12:00 to 12:30 on the 24th
+        BookedSeries weekly = new BookedSeries("Gynecology", 1L, 1L,
+            LocalDateTime.parse("12:00 03/04/2023", formatter), LocalDateTime.parse("12:30 03/04/2023", formatter), 7, 8);
+
+        when(roomRepository.findByRoomName("Gynecology")).thenReturn(Optional.of(new Room("Gynecology")));
+        when(appointmentRepository.findRoomBusySlots("Gynecology", from, to)).thenReturn(busy);
+        when(recurringAppointmentRepository.findRoomSeries("Gynecology", from, to)).thenReturn(Collections.singletonList(weekly));
+
+        mockMvc.perform(get("/api/rooms/{roomName}/free-slots", "Gynecology")
+                .param("from", "09:00 24/04/2023")
+                .param("to", "13:00 24/04/2023")
+                .param("duration", "60"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].startsAt").value("09:00 24/04/2023"))
+                .andExpect(jsonPath("$[1].startsAt").value("11:00 24/04/2023"))
+                .andExpect(jsonPath("$[1].finishesAt").value("12:00 24/04/2023"));
+    }
+
+    @Test
+    void shouldGetRoomUtilizationPerDay() throws Exception {
+        LocalDate from = LocalDate.of(2023, 4, 24);
+        LocalDate to = LocalDate.of(2023, 4, 25);
+
+        when(roomRepository.findByRoomName("Gynecology")).thenReturn(Optional.of(new Room("Gynecology")));
+        when(roomUtilization.between("Gynecology", from, to)).thenReturn(Arrays.asList(new DayUsage(from, 90), new DayUsage(to, 0)));
+
+        mockMvc.perform(get("/api/rooms/{roomName}/utilization", "Gynecology")
+                .param("from", "24/04/2023")
+                .param("to", "25/04/2023"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].date").value("24/04/2023"))
+                .andExpect(jsonPath("$[0].bookedMinutes").value(90))
+                .andExpect(jsonPath("$[1].bookedMinutes").value(0));
+    }
+
+    @Test
+    void shouldNotGetUtilizationOfUnknownRoomOrInvalidRange() throws Exception {
+        when(roomRepository.findByRoomName("Gynecology")).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/rooms/{roomName}/utilization", "Gynecology")
+                .param("from", "24/04/2023")
+                .param("to", "25/04/2023"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/rooms/{roomName}/utilization", "Gynecology")
+                .param("from", "25/04/2023")
+                .param("to", "24/04/2023"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/rooms/{roomName}/utilization", "Gynecology")
+                .param("from", "01/01/2023")
+                .param("to", "02/01/2024"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldNotGetFreeSlotsForAnEmptyWindow() throws Exception {
+        mockMvc.perform(get("/api/rooms/{roomName}/free-slots", "Gynecology")
+                .param("from", "13:00 24/04/2023")
+                .param("to", "09:00 24/04/2023")
+                .param("duration", "60"))
+                .andExpect(status().isBadRequest());
+    }
+
 
 }
@@ -218,6 +218,44 @@ class EntityUnitTest {
         assertThat(appointmentToPersist3.overlaps(appointmentToPersist2)).isFalse();
     }
 
+    @Test
+    @DisplayName("method overlaps should return true when the same doctor has two appointments at the same time in different rooms")
+    void overlapsShouldReturnTrueWhenSameDoctorInDifferentRooms() {
+        Patient patient2 = new Patient("Paulino", "Antunez", 37, "p.antunez@email.com");
+        Room room2 = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAtAppointment= LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAtAppointment = LocalDateTime.parse("20:00 24/04/2023", formatter);
+
+        LocalDateTime startsAtAppointment2= LocalDateTime.parse("19:45 24/04/2023", formatter);
+        LocalDateTime finishesAtAppointment2 = LocalDateTime.parse("20:15 24/04/2023", formatter);
+
+        this.appointmentToPersist1  = new Appointment(this.patientToPersist, this.doctorToPersist, this.roomToPersist, startsAtAppointment, finishesAtAppointment);
+        this.appointmentToPersist2 = new Appointment(patient2, this.doctorToPersist, room2, startsAtAppointment2, finishesAtAppointment2);
+
+        assertThat(appointmentToPersist1.overlaps(appointmentToPersist2)).isTrue();
+    }
+
+    @Test
+    @DisplayName("method overlaps should return false when appointments at the same time share no room, doctor or patient")
+    void overlapsShouldReturnFalseWhenNoResourceIsShared() {
+        Patient patient2 = new Patient("Paulino", "Antunez", 37, "p.antunez@email.com");
+        Doctor doctor2 = new Doctor ("Miren", "Iniesta", 24, "m.iniesta@hospital.accwe");
+        Room room2 = new Room("Oncology");
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+        LocalDateTime startsAt= LocalDateTime.parse("19:30 24/04/2023", formatter);
+        LocalDateTime finishesAt = LocalDateTime.parse("20:00 24/04/2023", formatter);
+
+        this.appointmentToPersist1  = new Appointment(this.patientToPersist, this.doctorToPersist, this.roomToPersist, startsAt, finishesAt);
+        this.appointmentToPersist2 = new Appointment(patient2, doctor2, room2, startsAt, finishesAt);
+
+        assertThat(appointmentToPersist1.overlaps(appointmentToPersist2)).isFalse();
+    }
+
     @Test
     void shouldGettersAndSettersAppointmentWorkCorrectly() {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
@@ -226,8 +264,11 @@ class EntityUnitTest {
         LocalDateTime finishesAt = LocalDateTime.parse("20:30 24/04/2023", formatter);
 
         this.appointmentToPersist1 = new Appointment(this.patientToPersist, this.doctorToPersist, this.roomToPersist, startsAt, finishesAt);
-        this.appointmentToPersist1.setDoctor(new Doctor ("Miren", "Iniesta", 24, "m.iniesta@hospital.accwe"));
+        Doctor replacement = new Doctor ("Miren", "Iniesta", 24, "m.iniesta@hospital.accwe");
+        this.appointmentToPersist1.setDoctor(replacement);
 
+        entityManager.persist(replacement);
+        entityManager.flush();
         entityManager.persist(this.patientToPersist);
         entityManager.flush();
         entityManager.persist(this.doctorToPersist);
@@ -0,0 +1,71 @@
+package com.example.demo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.dto.TimeSlot;
+import com.example.demo.services.FreeSlots;
+
+class FreeSlotsUnitTest {
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    private LocalDateTime at(String time){
+        return LocalDateTime.parse(time, formatter);
+    }
+
+    private TimeSlot slot(String startsAt, String finishesAt){
+        return new TimeSlot(at(startsAt), at(finishesAt));
+    }
+
+    @Test
+    void shouldReturnTheWholeWindowWhenNothingIsBooked(){
+        List<TimeSlot> free = FreeSlots.between(at("09:00 24/04/2023"), at("13:00 24/04/2023"),
+                Duration.ofMinutes(30), Collections.emptyList());
+
+        assertThat(free).hasSize(1);
+        assertThat(free.get(0).getStartsAt()).isEqualTo(at("09:00 24/04/2023"));
+        assertThat(free.get(0).getFinishesAt()).isEqualTo(at("13:00 24/04/2023"));
+    }
+
+    @Test
+    void shouldSkipGapsShorterThanTheDuration(){
+        List<TimeSlot> busy = Arrays.asList(
+                slot("09:00 24/04/2023", "09:40 24/04/2023"),
+                slot("10:00 24/04/2023", "11:00 24/04/2023"),
+                slot("12:00 24/04/2023", "12:30 24/04/2023"));
+
+        List<TimeSlot> free = FreeSlots.between(at("09:00 24/04/2023"), at("13:00 24/04/2023"),
+                Duration.ofMinutes(30), busy);
+
+        assertThat(free).extracting(TimeSlot::getStartsAt)
+                .containsExactly(at("11:00 24/04/2023"), at("12:30 24/04/2023"));
+        assertThat(free).extracting(TimeSlot::getFinishesAt)
+                .containsExactly(at("12:00 24/04/2023"), at("13:00 24/04/2023"));
+    }
+
+    @Test
+    void shouldMergeOverlappingAndNestedBusySlots(){
+        List<TimeSlot> busy = Arrays.asList(
+                slot("08:00 24/04/2023", "10:00 24/04/2023"),
+                slot("09:00 24/04/2023", "09:30 24/04/2023"),
+                slot("09:45 24/04/2023", "11:00 24/04/2023"),
+                slot("12:30 24/04/2023", "14:00 24/04/2023"));
+
+        List<TimeSlot> free = FreeSlots.between(at("09:00 24/04/2023"), at("13:00 24/04/2023"),
+                Duration.ofMinutes(60), busy);
+
+        assertThat(free).hasSize(1);
+        assertThat(free.get(0).getStartsAt()).isEqualTo(at("11:00 24/04/2023"));
+        assertThat(free.get(0).getFinishesAt()).isEqualTo(at("12:30 24/04/2023"));
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.example.demo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.example.demo.controllers.IdempotencyFilter;
+
+class IdempotencyFilterUnitTest {
+
+    @Test
+    void shouldHandTheBufferedBodyToANonBlockingReader() throws Exception {
+        IdempotencyFilter filter = new IdempotencyFilter("maximumSize=10");
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/doctor");
+        request.addHeader("Idempotency-Key", "create-perla");
+        request.setContent("{\"firstName\":\"Perla\"}".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        boolean[] allRead = new boolean[1];
+
+        MockFilterChain chain = new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                ServletInputStream in = req.getInputStream();
+                in.setReadListener(new ReadListener() {
+                    @Override
+                    public void onDataAvailable() throws IOException {
+                        byte[] buffer = new byte[8];
+                        while (in.isReady() && !in.isFinished()) {
+                            read.write(buffer, 0, in.read(buffer));
+                        }
+                    }
+
+                    @Override
+                    public void onAllDataRead(){
+                        allRead[0] = true;
+                    }
+
+                    @Override
+                    public void onError(Throwable t){
+                        throw new IllegalStateException(t);
+                    }
+                });
+            }
+        });
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertThat(read.toString(StandardCharsets.UTF_8.name())).isEqualTo("{\"firstName\":\"Perla\"}");
+        assertThat(allRead[0]).isTrue();
+    }
+
+}
@@ -3,20 +3,34 @@ package com.example.demo;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.context.annotation.Import;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.example.demo.repositories.PatientRepository;
 import com.example.demo.entities.Patient;
+import com.example.demo.services.PersonImporter;
 
 
 @DataJpaTest
 @AutoConfigureTestDatabase(replace=Replace.NONE)
+@Import(PersonImporter.class)
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
 class PatientJpaUnitTest {
 
     @Autowired
@@ -25,6 +39,12 @@ class PatientJpaUnitTest {
     @Autowired
     PatientRepository repository;
 
+    @Autowired
+    PersonImporter personImporter;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
     @Test
     void should_find_no_patients_if_repository_is_empty(){
         Iterable<Patient> patients = repository.findAll();
@@ -102,5 +122,76 @@ class PatientJpaUnitTest {
         repository.deleteAll();
         assertThat(repository.findAll()).isEmpty();
     }
-    
+
+    @Test
+    void should_import_valid_csv_rows_and_report_the_rejected_ones() throws Exception {
+        StringBuilder csv = new StringBuilder("firstName,lastName,age,email\n");
+        for (int i = 0; i < 120; i++) {
+            csv.append("Patient").append(i).append(",Olaya,37,patient").append(i).append("@email.com\n");
+        }
+        csv.append("\"Carlos, Jr\",\"O\"\"Neil\",41,c.oneil@email.com\n");
+        csv.append("Juan,Carlos,old,j.carlos@email.com\n");
+        csv.append("Juan,Carlos,34\n");
+
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        AtomicInteger chunks = new AtomicInteger();
+        personImporter.importPatients(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), report,
+                chunks::incrementAndGet);
+
+        String[] lines = report.toString(StandardCharsets.UTF_8.name()).split("\n");
+        assertThat(lines).containsExactly(
+                "{\"line\":123,\"error\":\"age is not a number: old\"}",
+                "{\"line\":124,\"error\":\"expected 4 fields but found 3\"}",
+                "{\"imported\":121,\"failed\":2}");
+        assertThat(chunks.get()).isEqualTo(3);
+        assertThat(repository.count()).isEqualTo(121);
+        assertThat(repository.findAll()).extracting(Patient::getLastName).contains("O\"Neil");
+    }
+
+    @Test
+    void should_reject_overlong_fields_before_saving() throws Exception {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i <= 255; i++) {
+            longName.append('a');
+        }
+        String csv = "Juan,Carlos,34,j.carlos@email.com\n" + longName + ",Julia,29,c.julia@email.com\n";
+
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        personImporter.importPatients(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), report, () -> {});
+
+        assertThat(report.toString(StandardCharsets.UTF_8.name()).split("\n")).containsExactly(
+                "{\"line\":2,\"error\":\"field longer than 255 characters\"}",
+                "{\"imported\":1,\"failed\":1}");
+        assertThat(repository.count()).isEqualTo(1);
+    }
+
+    // Chunks commit on their own, so this runs outside the test transaction and cleans up after itself
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void should_save_the_rest_of_a_chunk_the_database_rejects_a_row_of() throws Exception {
+        jdbcTemplate.execute("alter table patient add constraint ck_patient_not_rejected check (email <> 'rejected@email.com')");
+        try {
+            StringBuilder csv = new StringBuilder();
+            for (int i = 0; i < 60; i++) {
+                csv.append("Patient").append(i).append(",Olaya,37,")
+                        .append(i == 10 ? "rejected" : "patient" + i).append("@email.com\n");
+            }
+
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            AtomicInteger chunks = new AtomicInteger();
+            personImporter.importPatients(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), report,
+                    chunks::incrementAndGet);
+
+            String[] lines = report.toString(StandardCharsets.UTF_8.name()).split("\n");
+            assertThat(lines).hasSize(2);
+            assertThat(lines[0]).startsWith("{\"line\":11,\"error\":\"not saved: ");
+            assertThat(lines[1]).isEqualTo("{\"imported\":59,\"failed\":1}");
+            assertThat(chunks.get()).isEqualTo(2);
+            assertThat(repository.count()).isEqualTo(59);
+            assertThat(repository.findAll()).extracting(Patient::getEmail).doesNotContain("rejected@email.com");
+        } finally {
+            repository.deleteAll();
+            jdbcTemplate.execute("alter table patient drop constraint ck_patient_not_rejected");
+        }
+    }
 }
@@ -2,8 +2,17 @@ package com.example.demo;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.List;
 import java.util.Optional;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.cache.CacheType;
+import org.springframework.boot.test.autoconfigure.core.AutoConfigureCache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
@@ -17,6 +26,8 @@ import com.example.demo.entities.Room;
 
 @DataJpaTest
 @AutoConfigureTestDatabase(replace=Replace.NONE)
+@AutoConfigureCache(cacheProvider = CacheType.CAFFEINE)
+@Import(CacheConfiguration.class)
 class RoomJpaUnitTest {
 
     @Autowired
@@ -25,6 +36,9 @@ class RoomJpaUnitTest {
     @Autowired
     RoomRepository repository;
 
+    @Autowired
+    CacheManager cacheManager;
+
     @Test
     void should_find_no_rooms_if_repository_is_empty(){
         Iterable<Room> rooms = repository.findAll();
@@ -99,5 +113,42 @@ class RoomJpaUnitTest {
         repository.deleteAll();
         assertThat(repository.findAll()).isEmpty();
     }
-    
+
+    @Test
+    void should_page_rooms_by_name(){
+        Room room1 = new Room("Dermatology");
+        Room room2 = new Room("Operations");
+        Room room3 = new Room("Emergencies");
+
+        entityManager.persist(room1);
+        entityManager.persist(room2);
+        entityManager.persist(room3);
+
+        List<Room> firstPage = repository.findByRoomNameGreaterThanOrderByRoomNameAsc("", PageRequest.of(0, 2));
+        List<Room> secondPage = repository.findByRoomNameGreaterThanOrderByRoomNameAsc("Emergencies", PageRequest.of(0, 2));
+
+        assertThat(firstPage).containsExactly(room1, room3);
+        assertThat(secondPage).containsExactly(room2);
+    }
+
+    @Test
+    void should_cache_room_lookups_and_not_cache_missing_rooms(){
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+
+        assertThat(repository.findViewByRoomName("Radiology")).isEmpty();
+
+        repository.save(new Room("Radiology"));
+        entityManager.flush();
+        statistics.clear();
+
+        assertThat(repository.findViewByRoomName("Radiology")).isPresent();
+        assertThat(repository.findViewByRoomName("Radiology")).isPresent();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(((CaffeineCache) cacheManager.getCache("rooms")).getNativeCache().stats().hitCount()).isEqualTo(1);
+
+        repository.deleteByRoomName("Radiology");
+
+        assertThat(repository.findViewByRoomName("Radiology")).isEmpty();
+    }
 }